@@ -0,0 +1,12 @@
+package net.jcip.examples;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * AsyncComputable
+ * <p/>
+ * Computation whose result is delivered through a CompletableFuture
+ */
+public interface AsyncComputable <A, V> {
+    CompletableFuture<V> computeAsync(A arg);
+}
@@ -0,0 +1,100 @@
+package net.jcip.examples;
+
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import net.jcip.annotations.*;
+
+/**
+ * AsyncMemoizer
+ * <p/>
+ * Memoizer that runs computations on an executor and hands out
+ * CompletableFutures
+ * <p/>
+ * As in Memoizer, the first caller for an argument installs a future with
+ * putIfAbsent and every later caller shares it. Unlike Memoizer, the
+ * computation runs on the executor rather than on the caller's thread, and
+ * computeAsync never blocks: callers attach continuations to the returned
+ * future instead of parking in get(). The future is shared, so a caller
+ * that cancels it cancels it for everyone; a cancelled future is removed
+ * so that the next caller starts a fresh computation. A computation
+ * interrupted on the executor is treated as cancelled in the same way.
+ */
+@ThreadSafe
+public class AsyncMemoizer <A, V> implements AsyncComputable<A, V>, Computable<A, V> {
+    private final ConcurrentMap<A, CompletableFuture<V>> cache
+            = new ConcurrentHashMap<>();
+    private final Computable<A, V> c;
+    private final Executor executor;
+    private final StatsCounter stats = new StatsCounter();
+
+    public AsyncMemoizer(Computable<A, V> c, Executor executor) {
+        this.c = stats.instrument(c);
+        this.executor = executor;
+    }
+
+    public CompletableFuture<V> computeAsync(final A arg) {
+        CompletableFuture<V> f = cache.get(arg);
+        if (f == null) {
+            final CompletableFuture<V> nf = new CompletableFuture<>();
+            f = cache.putIfAbsent(arg, nf);
+            if (f == null) {
+                f = nf;
+                stats.recordMisses(1);
+                nf.whenComplete(new BiConsumer<V, Throwable>() {
+                    public void accept(V value, Throwable t) {
+                        if (nf.isCancelled())
+                            cache.remove(arg, nf);
+                    }
+                });
+                load(arg, nf);
+            } else
+                stats.recordHits(1);
+        } else
+            stats.recordHits(1);
+        return f;
+    }
+
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /** Blocking form for callers that are written against Computable */
+    public V compute(A arg) throws InterruptedException {
+        while (true) {
+            CompletableFuture<V> f = computeAsync(arg);
+            try {
+                return f.get();
+            } catch (CancellationException e) {
+                cache.remove(arg, f);
+            } catch (ExecutionException e) {
+                throw LaunderThrowable.launderThrowable(e.getCause());
+            }
+        }
+    }
+
+    private void load(final A arg, final CompletableFuture<V> f) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    if (f.isDone()) // cancelled before it got to run
+                        return;
+                    try {
+                        f.complete(c.compute(arg));
+                    } catch (InterruptedException e) {
+                        // Not the computation's fault, so not worth caching:
+                        // drop the entry and let the next caller start over
+                        cache.remove(arg, f);
+                        f.cancel(false);
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable t) {
+                        f.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            cache.remove(arg, f);
+            f.completeExceptionally(e);
+        }
+    }
+}
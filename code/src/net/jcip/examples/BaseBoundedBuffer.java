@@ -1,5 +1,7 @@
 package net.jcip.examples;
 
+import java.util.Collection;
+
 import net.jcip.annotations.*;
 
 /**
@@ -36,6 +38,33 @@ public abstract class BaseBoundedBuffer <V> {
         return v;
     }
 
+    // Puts as many of src as there is room for, and returns how many
+    protected synchronized final int doPutAll(V[] src, int off, int len) {
+        int n = Math.min(len, buf.length - count);
+        for (int i = 0; i < n; i++) {
+            buf[tail] = src[off + i];
+            if (++tail == buf.length)
+                tail = 0;
+        }
+        count += n;
+        return n;
+    }
+
+    // Takes as many items as there are, up to dst.length, and returns how many
+    protected synchronized final int doTakeAll(V[] dst) {
+        int n = Math.min(dst.length, count);
+        for (int i = 0; i < n; i++)
+            dst[i] = doTake();
+        return n;
+    }
+
+    protected synchronized final int doDrainTo(Collection<? super V> c, int max) {
+        int n = Math.min(max, count);
+        for (int i = 0; i < n; i++)
+            c.add(doTake());
+        return n;
+    }
+
     public synchronized final boolean isFull() {
         return count == buf.length;
     }
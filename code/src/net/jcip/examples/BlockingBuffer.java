@@ -0,0 +1,31 @@
+package net.jcip.examples;
+
+import java.util.Collection;
+
+/**
+ * BlockingBuffer
+ * <p/>
+ * Blocking put and take, as offered by the bounded buffers
+ * <p/>
+ * The batch operations move many items for the cost of one: one lock
+ * acquisition (or one claim of the buffer's positions) and one wake-up of
+ * the waiting threads per batch.
+ */
+public interface BlockingBuffer <E> {
+    // BLOCKS-UNTIL: not-full
+    void put(E e) throws InterruptedException;
+
+    // BLOCKS-UNTIL: not-empty
+    E take() throws InterruptedException;
+
+    // BLOCKS-UNTIL: not-full, as often as it takes to put all of them
+    void putAll(E[] src, int off, int len) throws InterruptedException;
+
+    // BLOCKS-UNTIL: not-empty
+    // Takes as many items as are available, up to dst.length, and returns how many
+    int takeBatch(E[] dst) throws InterruptedException;
+
+    // Takes as many items as are available, up to max, without blocking;
+    // returns how many were added to c
+    int drainTo(Collection<? super E> c, int max);
+}
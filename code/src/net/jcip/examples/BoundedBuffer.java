@@ -1,5 +1,7 @@
 package net.jcip.examples;
 
+import java.util.Collection;
+
 import net.jcip.annotations.*;
 
 /**
@@ -10,7 +12,7 @@ import net.jcip.annotations.*;
  * @author Brian Goetz and Tim Peierls
  */
 @ThreadSafe
-        public class BoundedBuffer <V> extends BaseBoundedBuffer<V> {
+        public class BoundedBuffer <V> extends BaseBoundedBuffer<V> implements BlockingBuffer<V> {
     // CONDITION PREDICATE: not-full (!isFull())
     // CONDITION PREDICATE: not-empty (!isEmpty())
     public BoundedBuffer() {
@@ -38,6 +40,34 @@ import net.jcip.annotations.*;
         return v;
     }
 
+    // BLOCKS-UNTIL: not-full, as often as it takes to put all of them
+    public synchronized void putAll(V[] src, int off, int len) throws InterruptedException {
+        while (len > 0) {
+            while (isFull())
+                wait();
+            int n = doPutAll(src, off, len);
+            off += n;
+            len -= n;
+            notifyAll();
+        }
+    }
+
+    // BLOCKS-UNTIL: not-empty
+    public synchronized int takeBatch(V[] dst) throws InterruptedException {
+        while (isEmpty())
+            wait();
+        int n = doTakeAll(dst);
+        notifyAll();
+        return n;
+    }
+
+    public synchronized int drainTo(Collection<? super V> c, int max) {
+        int n = doDrainTo(c, max);
+        if (n > 0)
+            notifyAll();
+        return n;
+    }
+
     // BLOCKS-UNTIL: not-full
     // Alternate form of put() using conditional notification
     public synchronized void alternatePut(V v) throws InterruptedException {
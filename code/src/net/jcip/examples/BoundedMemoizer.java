@@ -0,0 +1,324 @@
+package net.jcip.examples;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * BoundedMemoizer
+ * <p/>
+ * Size-bounded Memoizer using W-TinyLFU admission and eviction
+ * <p/>
+ * Entries are FutureTasks exactly as in Memoizer, so concurrent callers for
+ * the same argument share one computation. A computation only becomes
+ * subject to the eviction policy once it has completed and been weighed;
+ * until then it is invisible to the policy, so eviction never cancels (or
+ * even considers) a computation that other callers are still waiting on.
+ * <p/>
+ * New entries enter a small LRU admission window. Entries leaving the window
+ * compete with the LRU victim of the main space, and are admitted only if a
+ * frequency sketch says they are more popular. The main space is a
+ * segmented LRU: an entry hit while on probation is promoted to the
+ * protected segment. A one-time scan therefore passes through the window
+ * without flushing the frequently used entries out of the main space.
+ * <p/>
+ * The policy is guarded by a single lock. Cache hits record their access
+ * only if that lock is free, so a hit never blocks; under heavy contention
+ * some accesses go unrecorded, which slightly degrades the policy but not
+ * correctness.
+ */
+@ThreadSafe
+public class BoundedMemoizer <A, V> implements Computable<A, V> {
+    private static final double WINDOW_PERCENT = 0.01;
+    private static final double PROTECTED_PERCENT = 0.80;
+    private static final int INITIAL_SKETCH_SIZE = 1024;
+    // Frequency above which a losing candidate is still occasionally admitted,
+    // so that an attacker cannot pin a victim by flooding its hash
+    private static final int ADMIT_HASHDOS_THRESHOLD = 6;
+
+    // Policy queue that a node is in
+    private static final int IN_FLIGHT = 0, WINDOW = 1, PROBATION = 2,
+            PROTECTED = 3, RETIRED = 4;
+
+    private final ConcurrentMap<A, Node<A, V>> cache
+            = new ConcurrentHashMap<>();
+    private final Computable<A, V> c;
+    private final Weigher<? super A, ? super V> weigher;
+    private final long maximumWeight;
+    private final long maxWindow;
+    private final long maxProtected;
+    private final StatsCounter stats = new StatsCounter();
+
+    private final Lock evictionLock = new ReentrantLock();
+    @GuardedBy("evictionLock") private final FrequencySketch<A> sketch;
+    @GuardedBy("evictionLock") private final AccessOrderDeque<A, V> window = new AccessOrderDeque<>();
+    @GuardedBy("evictionLock") private final AccessOrderDeque<A, V> probation = new AccessOrderDeque<>();
+    @GuardedBy("evictionLock") private final AccessOrderDeque<A, V> protectedQ = new AccessOrderDeque<>();
+    @GuardedBy("evictionLock") private long windowWeight, mainWeight, protectedWeight;
+
+    public BoundedMemoizer(Computable<A, V> c, long maximumSize) {
+        this(c, maximumSize, new Weigher<A, V>() {
+            public int weigh(A key, V value) {
+                return 1;
+            }
+        });
+    }
+
+    public BoundedMemoizer(Computable<A, V> c, long maximumWeight,
+                           Weigher<? super A, ? super V> weigher) {
+        if (maximumWeight < 0)
+            throw new IllegalArgumentException();
+        this.c = stats.instrument(c);
+        this.weigher = weigher;
+        this.maximumWeight = maximumWeight;
+        this.maxWindow = (long) (maximumWeight * WINDOW_PERCENT);
+        this.maxProtected = (long) ((maximumWeight - maxWindow) * PROTECTED_PERCENT);
+        this.sketch = new FrequencySketch<>(Math.min(maximumWeight, INITIAL_SKETCH_SIZE));
+    }
+
+    public V compute(final A arg) throws InterruptedException {
+        while (true) {
+            boolean loaded = false;
+            Node<A, V> n = cache.get(arg);
+            if (n == null) {
+                Callable<V> eval = new Callable<V>() {
+                    public V call() throws InterruptedException {
+                        return c.compute(arg);
+                    }
+                };
+                Node<A, V> node = new Node<>(arg, new FutureTask<>(eval));
+                n = cache.putIfAbsent(arg, node);
+                if (n == null) {
+                    n = node;
+                    stats.recordMisses(1);
+                    node.future.run();
+                    loaded = true;
+                } else
+                    stats.recordHits(1);
+            } else
+                stats.recordHits(1);
+            try {
+                V value = n.future.get();
+                if (loaded)
+                    afterWrite(n, value);
+                else
+                    afterRead(n);
+                return value;
+            } catch (CancellationException e) {
+                cache.remove(arg, n);
+            } catch (ExecutionException e) {
+                // Failures are not weighed, so they are not left in the cache;
+                // callers already waiting on n still see this exception
+                if (loaded)
+                    cache.remove(arg, n);
+                throw LaunderThrowable.launderThrowable(e.getCause());
+            }
+        }
+    }
+
+    /** Discards the entry for arg; an in-flight computation runs to completion */
+    public void invalidate(A arg) {
+        evictionLock.lock();
+        try {
+            Node<A, V> n = cache.remove(arg);
+            if (n != null)
+                retire(n);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** Returns the number of entries, including in-flight computations */
+    public int size() {
+        return cache.size();
+    }
+
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /** Returns the total weight of the completed entries */
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            return windowWeight + mainWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void afterWrite(Node<A, V> n, V value) {
+        int weight = weigher.weigh(n.key, value);
+        if (weight < 0)
+            throw new IllegalStateException("negative weight: " + weight);
+        evictionLock.lock();
+        try {
+            sketch.ensureCapacity(cache.size());
+            sketch.increment(n.key);
+            if (n.queue != IN_FLIGHT) // invalidated while loading
+                return;
+            if (weight > maximumWeight) {
+                cache.remove(n.key, n);
+                n.queue = RETIRED;
+                stats.recordEviction();
+                return;
+            }
+            n.weight = weight;
+            n.queue = WINDOW;
+            window.addLast(n);
+            windowWeight += weight;
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void afterRead(Node<A, V> n) {
+        if (!evictionLock.tryLock())
+            return;
+        try {
+            sketch.increment(n.key);
+            switch (n.queue) {
+                case WINDOW:
+                    window.moveToBack(n);
+                    break;
+                case PROBATION:
+                    probation.remove(n);
+                    n.queue = PROTECTED;
+                    protectedQ.addLast(n);
+                    protectedWeight += n.weight;
+                    demoteFromProtected();
+                    break;
+                case PROTECTED:
+                    protectedQ.moveToBack(n);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void demoteFromProtected() {
+        while (protectedWeight > maxProtected) {
+            Node<A, V> n = protectedQ.peekFirst();
+            protectedQ.remove(n);
+            protectedWeight -= n.weight;
+            n.queue = PROBATION;
+            probation.addLast(n);
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void evict() {
+        // Entries overflowing the window become candidates at the MRU end of probation
+        while (windowWeight > maxWindow) {
+            Node<A, V> n = window.peekFirst();
+            window.remove(n);
+            windowWeight -= n.weight;
+            n.queue = PROBATION;
+            probation.addLast(n);
+            mainWeight += n.weight;
+        }
+        // Candidates duel with the LRU end of probation; the less popular is evicted
+        while (windowWeight + mainWeight > maximumWeight) {
+            Node<A, V> victim = probation.peekFirst();
+            Node<A, V> candidate = probation.peekLast();
+            if (victim == null) {
+                victim = protectedQ.peekFirst();
+                if (victim == null)
+                    victim = window.peekFirst();
+            } else if (victim != candidate && !admit(candidate.key, victim.key))
+                victim = candidate;
+            retire(victim);
+            stats.recordEviction();
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private boolean admit(A candidateKey, A victimKey) {
+        int candidateFreq = sketch.frequency(candidateKey);
+        int victimFreq = sketch.frequency(victimKey);
+        if (candidateFreq > victimFreq)
+            return true;
+        if (candidateFreq <= ADMIT_HASHDOS_THRESHOLD)
+            return false;
+        return (ThreadLocalRandom.current().nextInt() & 127) == 0;
+    }
+
+    /** Unlinks n from the policy and the map; the future itself is left untouched */
+    @GuardedBy("evictionLock")
+    private void retire(Node<A, V> n) {
+        switch (n.queue) {
+            case WINDOW:
+                window.remove(n);
+                windowWeight -= n.weight;
+                break;
+            case PROTECTED:
+                protectedQ.remove(n);
+                protectedWeight -= n.weight;
+                mainWeight -= n.weight;
+                break;
+            case PROBATION:
+                probation.remove(n);
+                mainWeight -= n.weight;
+                break;
+            default:
+                break;
+        }
+        n.queue = RETIRED;
+        cache.remove(n.key, n);
+    }
+
+    private static final class Node <A, V> {
+        final A key;
+        final FutureTask<V> future;
+        @GuardedBy("evictionLock") int weight;
+        @GuardedBy("evictionLock") int queue = IN_FLIGHT;
+        @GuardedBy("evictionLock") Node<A, V> prev, next;
+
+        Node(A key, FutureTask<V> future) {
+            this.key = key;
+            this.future = future;
+        }
+    }
+
+    /** Intrusive doubly-linked list, LRU at the front and MRU at the back */
+    @NotThreadSafe
+    private static final class AccessOrderDeque <A, V> {
+        private final Node<A, V> sentinel = new Node<>(null, null);
+
+        AccessOrderDeque() {
+            sentinel.prev = sentinel.next = sentinel;
+        }
+
+        Node<A, V> peekFirst() {
+            return sentinel.next == sentinel ? null : sentinel.next;
+        }
+
+        Node<A, V> peekLast() {
+            return sentinel.prev == sentinel ? null : sentinel.prev;
+        }
+
+        void addLast(Node<A, V> n) {
+            n.prev = sentinel.prev;
+            n.next = sentinel;
+            sentinel.prev.next = n;
+            sentinel.prev = n;
+        }
+
+        void remove(Node<A, V> n) {
+            n.prev.next = n.next;
+            n.next.prev = n.prev;
+            n.prev = n.next = null;
+        }
+
+        void moveToBack(Node<A, V> n) {
+            remove(n);
+            addLast(n);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package net.jcip.examples;
+
+import java.util.*;
+
+/**
+ * BulkComputable
+ * <p/>
+ * Computation that can produce the results for many arguments in one call
+ */
+public interface BulkComputable <A, V> {
+    /**
+     * Returns a map holding the result for each of args; arguments missing
+     * from the returned map are treated as failures.
+     */
+    Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException;
+}
@@ -0,0 +1,108 @@
+package net.jcip.examples;
+
+import net.jcip.annotations.*;
+
+/**
+ * CacheStats
+ * <p/>
+ * Immutable snapshot of a cache's statistics, as taken by StatsCounter
+ */
+@Immutable
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+    private final long inFlightCount;
+
+    public CacheStats(long hitCount, long missCount, long loadSuccessCount,
+                      long loadFailureCount, long totalLoadTime,
+                      long evictionCount, long inFlightCount) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.inFlightCount = inFlightCount;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public double hitRate() {
+        long requests = requestCount();
+        return (requests == 0) ? 1.0 : (double) hitCount / requests;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /** Total nanoseconds spent loading, successfully or not */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /** Average nanoseconds spent per load */
+    public double averageLoadPenalty() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return (loads == 0) ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /** Number of loads in progress when the snapshot was taken */
+    public long inFlightCount() {
+        return inFlightCount;
+    }
+
+    /**
+     * Formats this snapshot in the Prometheus text exposition format, with
+     * the cache name as a label.
+     */
+    public String toPrometheusText(String cacheName) {
+        String label = "{cache=\"" + cacheName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        StringBuilder sb = new StringBuilder();
+        metric(sb, "cache_hits_total", "counter", label, hitCount);
+        metric(sb, "cache_misses_total", "counter", label, missCount);
+        metric(sb, "cache_load_success_total", "counter", label, loadSuccessCount);
+        metric(sb, "cache_load_failure_total", "counter", label, loadFailureCount);
+        metric(sb, "cache_load_duration_seconds_total", "counter", label, totalLoadTime / 1e9);
+        metric(sb, "cache_evictions_total", "counter", label, evictionCount);
+        metric(sb, "cache_loads_in_flight", "gauge", label, inFlightCount);
+        return sb.toString();
+    }
+
+    private static void metric(StringBuilder sb, String name, String type,
+                               String label, Object value) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        sb.append(name).append(label).append(' ').append(value).append('\n');
+    }
+
+    public String toString() {
+        return "CacheStats{hitCount=" + hitCount + ", missCount=" + missCount
+                + ", loadSuccessCount=" + loadSuccessCount
+                + ", loadFailureCount=" + loadFailureCount
+                + ", totalLoadTime=" + totalLoadTime
+                + ", evictionCount=" + evictionCount
+                + ", inFlightCount=" + inFlightCount + "}";
+    }
+}
@@ -1,5 +1,6 @@
 package net.jcip.examples;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import javax.servlet.*;
 
@@ -14,48 +15,82 @@ import net.jcip.annotations.*;
  */
 @ThreadSafe
 public class CachedFactorizer extends GenericServlet implements Servlet {
-    @GuardedBy("this") private BigInteger lastNumber;
-    @GuardedBy("this") private BigInteger[] lastFactors;
-    @GuardedBy("this") private long hits;
-    @GuardedBy("this") private long cacheHits;
+    private static final FactorizationEngine engine = new FactorizationEngine();
+    // Keyed by the number as requested and holding the encoded response, so
+    // that a hit neither parses, copies nor encodes anything
+    @GuardedBy("this") private String lastNumber;
+    @GuardedBy("this") private EncodedFactors lastFactors;
+    // Counted outside the lock, so that counting does not lengthen the critical section
+    private final StatsCounter stats = new StatsCounter();
 
-    public synchronized long getHits() {
-        return hits;
+    public long getHits() {
+        return stats.snapshot().requestCount();
     }
 
-    public synchronized double getCacheHitRatio() {
-        return (double) cacheHits / (double) hits;
+    public double getCacheHitRatio() {
+        CacheStats s = stats.snapshot();
+        return (double) s.hitCount() / (double) s.requestCount();
     }
 
-    public void service(ServletRequest req, ServletResponse resp) {
-        BigInteger i = extractFromRequest(req);
-        BigInteger[] factors = null;
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    public void service(ServletRequest req, ServletResponse resp) throws IOException {
+        String number = extractFromRequest(req);
+        EncodedFactors factors = null;
         synchronized (this) {
-            ++hits;
-            if (i.equals(lastNumber)) {
-                ++cacheHits;
-                factors = lastFactors.clone();
-            }
+            if (number.equals(lastNumber))
+                factors = lastFactors;
         }
-        if (factors == null) {
-            factors = factor(i);
+        if (factors != null)
+            stats.recordHits(1);
+        else {
+            BigInteger i;
+            try {
+                i = new BigInteger(number);
+            } catch (NumberFormatException e) {
+                encodeError(resp, "not a number");
+                return;
+            }
+            stats.recordMisses(1);
+            long start = stats.recordLoadStart();
+            try {
+                factors = new EncodedFactors(factor(i));
+            } catch (IllegalArgumentException e) {
+                encodeError(resp, "too large to factor");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                encodeError(resp, "factorization interrupted");
+                return;
+            } finally {
+                if (factors != null)
+                    stats.recordLoadSuccess(start);
+                else
+                    stats.recordLoadFailure(start);
+            }
             synchronized (this) {
-                lastNumber = i;
-                lastFactors = factors.clone();
+                lastNumber = number;
+                lastFactors = factors;
             }
         }
         encodeIntoResponse(resp, factors);
     }
 
-    void encodeIntoResponse(ServletResponse resp, BigInteger[] factors) {
+    void encodeIntoResponse(ServletResponse resp, EncodedFactors factors)
+            throws IOException {
+        factors.writeTo(resp);
+    }
+
+    void encodeError(ServletResponse resp, String errorString) {
     }
 
-    BigInteger extractFromRequest(ServletRequest req) {
-        return new BigInteger("7");
+    String extractFromRequest(ServletRequest req) {
+        return "7";
     }
 
-    BigInteger[] factor(BigInteger i) {
-        // Doesn't really factor
-        return new BigInteger[]{i};
+    BigInteger[] factor(BigInteger i) throws InterruptedException {
+        return engine.factor(i);
     }
 }
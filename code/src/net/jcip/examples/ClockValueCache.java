@@ -0,0 +1,119 @@
+package net.jcip.examples;
+
+import java.util.concurrent.atomic.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * ClockValueCache
+ * <p/>
+ * N-entry generalization of OneValueCache with CLOCK replacement
+ * <p/>
+ * The entries live in an immutable table published through an atomic
+ * reference, so lookups take no lock and never see a half-built table.
+ * Adding an entry copies the table (a few small arrays, as the cache is
+ * meant to hold tens of entries) and installs the copy with a CAS, so
+ * concurrent additions are never lost.
+ * <p/>
+ * The one mutable part of a table is its array of CLOCK reference bits. A
+ * hit sets its entry's bit with a plain, racy write; a lost or stale bit
+ * only affects which entry is replaced next, never what a lookup returns.
+ * When the table is full, the clock hand sweeps past referenced entries,
+ * clearing their bits, and replaces the first unreferenced one.
+ * <p/>
+ * Values are returned as stored, without copying, so they should be
+ * immutable (for an array, store an unmodifiable List view of a copy).
+ */
+@ThreadSafe
+public class ClockValueCache <K, V> {
+    private final AtomicReference<Table> table;
+
+    public ClockValueCache(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        table = new AtomicReference<Table>(new Table(capacity));
+    }
+
+    public V get(K key) {
+        Table t = table.get();
+        int i = t.indexOf(key, key.hashCode());
+        if (i < 0)
+            return null;
+        if (t.referenced[i] == 0)
+            t.referenced[i] = 1;
+        @SuppressWarnings("unchecked") V value = (V) t.values[i];
+        return value;
+    }
+
+    public void put(K key, V value) {
+        int hash = key.hashCode();
+        while (true) {
+            Table t = table.get();
+            if (table.compareAndSet(t, t.with(key, hash, value)))
+                return;
+        }
+    }
+
+    public int size() {
+        return table.get().size;
+    }
+
+    private static final class Table {
+        final Object[] keys;
+        final Object[] values;
+        final int[] hashes;
+        final byte[] referenced; // racy hints, see class comment
+        final int size;
+        final int hand;
+
+        Table(int capacity) {
+            this(new Object[capacity], new Object[capacity], new int[capacity],
+                    new byte[capacity], 0, 0);
+        }
+
+        Table(Object[] keys, Object[] values, int[] hashes, byte[] referenced,
+              int size, int hand) {
+            this.keys = keys;
+            this.values = values;
+            this.hashes = hashes;
+            this.referenced = referenced;
+            this.size = size;
+            this.hand = hand;
+        }
+
+        int indexOf(Object key, int hash) {
+            for (int i = 0; i < size; i++)
+                if (hashes[i] == hash && key.equals(keys[i]))
+                    return i;
+            return -1;
+        }
+
+        /** Returns a copy of this table holding key, evicting an entry if full */
+        Table with(Object key, int hash, Object value) {
+            byte[] bits = referenced.clone();
+            int size = this.size;
+            int hand = this.hand;
+            int slot = indexOf(key, hash);
+            if (slot < 0) {
+                if (size < keys.length)
+                    slot = size++;
+                else {
+                    while (bits[hand] != 0) {
+                        bits[hand] = 0;
+                        hand = (hand + 1 == keys.length) ? 0 : hand + 1;
+                    }
+                    slot = hand;
+                    hand = (hand + 1 == keys.length) ? 0 : hand + 1;
+                }
+            }
+            Object[] newKeys = keys.clone();
+            Object[] newValues = values.clone();
+            int[] newHashes = hashes.clone();
+            newKeys[slot] = key;
+            newValues[slot] = value;
+            newHashes[slot] = hash;
+            bits[slot] = 1;
+            return new Table(newKeys, newValues, newHashes, bits, size, hand);
+        }
+    }
+}
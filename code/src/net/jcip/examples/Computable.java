@@ -0,0 +1,12 @@
+package net.jcip.examples;
+
+/**
+ * Computable
+ * <p/>
+ * Computation whose results the memoizers cache
+ *
+ * @author Brian Goetz and Tim Peierls
+ */
+interface Computable <A, V> {
+    V compute(A arg) throws InterruptedException;
+}
@@ -0,0 +1,281 @@
+package net.jcip.examples;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.*;
+
+/**
+ * ConcurrentLongLongMap
+ * <p/>
+ * Concurrent map from primitive long keys to primitive long values
+ * <p/>
+ * Laid out as ConcurrentLongObjectMap is, with a long[] of values, so an
+ * entry costs two longs and nothing else. Without null to stand for a
+ * missing value, the map is given a missingValue at construction: get
+ * returns it for a missing key, a removed entry's slot is set to it, and
+ * it cannot itself be stored. addAndGet makes the map usable as a set of
+ * counters keyed by id.
+ */
+@ThreadSafe
+public class ConcurrentLongLongMap {
+    // Synchronization policy: each stripe's table and counts are guarded by
+    // the stripe for writing, and zeroKeyValue by this; reads need no lock
+    private static final long EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int MAX_TABLE = 1 << 30;
+    private final Stripe[] stripes;
+    private final long missingValue;
+    @GuardedBy("this") private volatile long zeroKeyValue;
+
+    private static class Table {
+        final AtomicLongArray keys;
+        final AtomicLongArray values; // missingValue if never set, or removed
+
+        Table(int size, long missingValue) {
+            keys = new AtomicLongArray(size);
+            values = new AtomicLongArray(size);
+            if (missingValue != 0)
+                for (int i = 0; i < size; i++)
+                    values.lazySet(i, missingValue);
+        }
+    }
+
+    private static class Stripe {
+        volatile Table table;
+        volatile int size; // live entries; written only under the stripe's lock
+        int used; // slots holding a key, live or tombstone
+
+        Stripe(Table table) {
+            this.table = table;
+        }
+    }
+
+    /** Uses Long.MIN_VALUE as the missing value */
+    public ConcurrentLongLongMap(int initialCapacity) {
+        this(initialCapacity, Long.MIN_VALUE);
+    }
+
+    public ConcurrentLongLongMap(int initialCapacity, long missingValue) {
+        this(initialCapacity, missingValue, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /** numStripes is rounded up to a power of two */
+    public ConcurrentLongLongMap(int initialCapacity, long missingValue, int numStripes) {
+        if (initialCapacity < 0 || numStripes <= 0 || numStripes > 1 << 16)
+            throw new IllegalArgumentException();
+        this.missingValue = missingValue;
+        this.zeroKeyValue = missingValue;
+        int n = ceilingPowerOfTwo(numStripes);
+        int tableSize = tableSizeFor((initialCapacity + n - 1) / n);
+        stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe(new Table(tableSize, missingValue));
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        int p = Integer.highestOneBit(n);
+        return (p < n) ? Math.min(p << 1, MAX_TABLE) : p;
+    }
+
+    /** The smallest table that holds entries without passing the load factor */
+    private static int tableSizeFor(long entries) {
+        return ceilingPowerOfTwo((int) Math.min(Math.max(8, (long) (entries / LOAD_FACTOR) + 1), MAX_TABLE));
+    }
+
+    /** Spreads sequential ids over the whole table (the finalizer from MurmurHash3) */
+    private static long hash(long key) {
+        long h = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    // The high half of the hash picks the stripe, and the low half the first slot to probe
+    private Stripe stripeFor(long hash) {
+        return stripes[(int) (hash >>> 32) & (stripes.length - 1)];
+    }
+
+    /** The value get returns for a missing key */
+    public long missingValue() {
+        return missingValue;
+    }
+
+    public long get(long key) {
+        if (key == EMPTY)
+            return zeroKeyValue;
+        long hash = hash(key);
+        Table table = stripeFor(hash).table;
+        int mask = table.keys.length() - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long k = table.keys.get(i);
+            if (k == key)
+                return table.values.get(i);
+            if (k == EMPTY)
+                return missingValue;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != missingValue;
+    }
+
+    /** Returns the previous value, or missingValue if there was none */
+    public long put(long key, long value) {
+        checkValue(value);
+        return update(key, value, false, false);
+    }
+
+    public long putIfAbsent(long key, long value) {
+        checkValue(value);
+        return update(key, value, true, false);
+    }
+
+    /** Adds delta to key's value, taking a missing value as 0; returns the sum */
+    public long addAndGet(long key, long delta) {
+        return update(key, delta, false, true);
+    }
+
+    private void checkValue(long value) {
+        if (value == missingValue)
+            throw new IllegalArgumentException("value is the missing value");
+    }
+
+    /**
+     * Stores value (or adds it, if add) under key and returns the previous
+     * value; an add returns the sum instead.
+     */
+    private long update(long key, long value, boolean onlyIfAbsent, boolean add) {
+        if (key == EMPTY) {
+            synchronized (this) {
+                long old = zeroKeyValue;
+                long updated = updated(old, value, add);
+                if (old == missingValue || !onlyIfAbsent)
+                    zeroKeyValue = updated;
+                return add ? updated : old;
+            }
+        }
+        long hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            Table table = stripe.table;
+            int mask = table.keys.length() - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long k = table.keys.get(i);
+                if (k == key) {
+                    long old = table.values.get(i);
+                    long updated = updated(old, value, add);
+                    if (old == missingValue) {
+                        table.values.set(i, updated);
+                        stripe.size = stripe.size + 1;
+                    } else if (!onlyIfAbsent) {
+                        table.values.set(i, updated);
+                    }
+                    return add ? updated : old;
+                }
+                if (k == EMPTY) {
+                    long updated = updated(missingValue, value, add);
+                    // The value is in place before the volatile store publishes the key
+                    table.values.lazySet(i, updated);
+                    table.keys.set(i, key);
+                    stripe.size = stripe.size + 1;
+                    if (++stripe.used > (table.keys.length() * LOAD_FACTOR))
+                        rehash(stripe, table);
+                    return add ? updated : missingValue;
+                }
+            }
+        }
+    }
+
+    private long updated(long old, long value, boolean add) {
+        if (!add)
+            return value;
+        long sum = (old == missingValue) ? value : old + value;
+        checkValue(sum);
+        return sum;
+    }
+
+    /** Returns the removed value, or missingValue if there was none */
+    public long remove(long key) {
+        if (key == EMPTY) {
+            synchronized (this) {
+                long old = zeroKeyValue;
+                zeroKeyValue = missingValue;
+                return old;
+            }
+        }
+        long hash = hash(key);
+        Stripe stripe = stripeFor(hash);
+        synchronized (stripe) {
+            Table table = stripe.table;
+            int mask = table.keys.length() - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long k = table.keys.get(i);
+                if (k == key) {
+                    long old = table.values.get(i);
+                    if (old != missingValue) {
+                        table.values.set(i, missingValue); // the key stays, as a tombstone
+                        stripe.size = stripe.size - 1;
+                    }
+                    return old;
+                }
+                if (k == EMPTY)
+                    return missingValue;
+            }
+        }
+    }
+
+    /**
+     * Copies a stripe's live entries into a new table, doubled if they fill
+     * more than half the load factor; otherwise the same size, which just
+     * sweeps out the tombstones.
+     */
+    @GuardedBy("stripe")
+    private void rehash(Stripe stripe, Table table) {
+        int size = table.keys.length();
+        if (stripe.size > size * LOAD_FACTOR / 2 && size < MAX_TABLE)
+            size *= 2;
+        Table rehashed = new Table(size, missingValue);
+        int mask = size - 1;
+        for (int i = 0; i < table.keys.length(); i++) {
+            long value = table.values.get(i);
+            if (value == missingValue)
+                continue;
+            long key = table.keys.get(i);
+            int j = (int) hash(key) & mask;
+            while (rehashed.keys.get(j) != EMPTY)
+                j = (j + 1) & mask;
+            rehashed.keys.lazySet(j, key);
+            rehashed.values.lazySet(j, value);
+        }
+        stripe.used = stripe.size;
+        stripe.table = rehashed;
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.table = new Table(stripe.table.keys.length(), missingValue);
+                stripe.size = 0;
+                stripe.used = 0;
+            }
+        }
+        synchronized (this) {
+            zeroKeyValue = missingValue;
+        }
+    }
+
+    public int size() {
+        long n = (zeroKeyValue != missingValue) ? 1 : 0;
+        for (Stripe stripe : stripes)
+            n += stripe.size;
+        return (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        if (zeroKeyValue != missingValue)
+            return false;
+        for (Stripe stripe : stripes)
+            if (stripe.size != 0)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,247 @@
+package net.jcip.examples;
+
+import java.util.concurrent.atomic.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * ConcurrentLongObjectMap
+ * <p/>
+ * Concurrent map from primitive long keys to objects, with no boxing on get or put
+ * <p/>
+ * Striped like StripedMap, but each stripe keeps its entries in an open
+ * addressing table, linear probing over a long[] of keys alongside an
+ * Object[] of values, rather than in chains of nodes; an entry costs two
+ * array slots and no objects of its own. Readers take no locks. A key is
+ * never moved or changed once it is in a slot: a new entry's value is
+ * stored before its key, and removing an entry just clears its value and
+ * leaves the key behind as a tombstone, which only the same key can bring
+ * back. A reader that finds its key therefore reads that key's value (or
+ * null, if removed). Tombstones are dropped when the stripe rehashes into a
+ * new table, which it publishes once complete, as StripedMap does.
+ * <p/>
+ * Key 0 marks an empty slot, so it is kept in a field of its own. Null
+ * values are not allowed, as get returns null for a missing key; size is
+ * an estimate while the map is being updated.
+ */
+@ThreadSafe
+public class ConcurrentLongObjectMap <V> {
+    // Synchronization policy: each stripe's table and counts are guarded by
+    // the stripe for writing, and zeroKeyValue by this; reads need no lock
+    private static final long EMPTY = 0;
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int MAX_TABLE = 1 << 30;
+    private final Stripe<V>[] stripes;
+    @GuardedBy("this") private volatile V zeroKeyValue;
+
+    private static class Table <V> {
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<V> values; // null if never set, or removed
+
+        Table(int size) {
+            keys = new AtomicLongArray(size);
+            values = new AtomicReferenceArray<V>(size);
+        }
+    }
+
+    private static class Stripe <V> {
+        volatile Table<V> table;
+        volatile int size; // live entries; written only under the stripe's lock
+        int used; // slots holding a key, live or tombstone
+
+        Stripe(int tableSize) {
+            table = new Table<V>(tableSize);
+        }
+    }
+
+    public ConcurrentLongObjectMap(int initialCapacity) {
+        this(initialCapacity, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /** numStripes is rounded up to a power of two */
+    public ConcurrentLongObjectMap(int initialCapacity, int numStripes) {
+        if (initialCapacity < 0 || numStripes <= 0 || numStripes > 1 << 16)
+            throw new IllegalArgumentException();
+        int n = ceilingPowerOfTwo(numStripes);
+        int tableSize = tableSizeFor((initialCapacity + n - 1) / n);
+        @SuppressWarnings("unchecked") Stripe<V>[] stripes = (Stripe<V>[]) new Stripe<?>[n];
+        this.stripes = stripes;
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe<V>(tableSize);
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        int p = Integer.highestOneBit(n);
+        return (p < n) ? Math.min(p << 1, MAX_TABLE) : p;
+    }
+
+    /** The smallest table that holds entries without passing the load factor */
+    private static int tableSizeFor(long entries) {
+        return ceilingPowerOfTwo((int) Math.min(Math.max(8, (long) (entries / LOAD_FACTOR) + 1), MAX_TABLE));
+    }
+
+    /** Spreads sequential ids over the whole table (the finalizer from MurmurHash3) */
+    private static long hash(long key) {
+        long h = (key ^ (key >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    // The high half of the hash picks the stripe, and the low half the first slot to probe
+    private Stripe<V> stripeFor(long hash) {
+        return stripes[(int) (hash >>> 32) & (stripes.length - 1)];
+    }
+
+    public V get(long key) {
+        if (key == EMPTY)
+            return zeroKeyValue;
+        long hash = hash(key);
+        Table<V> table = stripeFor(hash).table;
+        int mask = table.keys.length() - 1;
+        for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+            long k = table.keys.get(i);
+            if (k == key)
+                return table.values.get(i);
+            if (k == EMPTY)
+                return null;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        if (value == null)
+            throw new NullPointerException();
+        if (key == EMPTY) {
+            synchronized (this) {
+                V old = zeroKeyValue;
+                if (old == null || !onlyIfAbsent)
+                    zeroKeyValue = value;
+                return old;
+            }
+        }
+        long hash = hash(key);
+        Stripe<V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            Table<V> table = stripe.table;
+            int mask = table.keys.length() - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long k = table.keys.get(i);
+                if (k == key) {
+                    V old = table.values.get(i);
+                    if (old == null) {
+                        table.values.set(i, value);
+                        stripe.size = stripe.size + 1;
+                    } else if (!onlyIfAbsent) {
+                        table.values.set(i, value);
+                    }
+                    return old;
+                }
+                if (k == EMPTY) {
+                    // The value is in place before the volatile store publishes the key
+                    table.values.lazySet(i, value);
+                    table.keys.set(i, key);
+                    stripe.size = stripe.size + 1;
+                    if (++stripe.used > (table.keys.length() * LOAD_FACTOR))
+                        rehash(stripe, table);
+                    return null;
+                }
+            }
+        }
+    }
+
+    public V remove(long key) {
+        if (key == EMPTY) {
+            synchronized (this) {
+                V old = zeroKeyValue;
+                zeroKeyValue = null;
+                return old;
+            }
+        }
+        long hash = hash(key);
+        Stripe<V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            Table<V> table = stripe.table;
+            int mask = table.keys.length() - 1;
+            for (int i = (int) hash & mask; ; i = (i + 1) & mask) {
+                long k = table.keys.get(i);
+                if (k == key) {
+                    V old = table.values.get(i);
+                    if (old != null) {
+                        table.values.set(i, null); // the key stays, as a tombstone
+                        stripe.size = stripe.size - 1;
+                    }
+                    return old;
+                }
+                if (k == EMPTY)
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Copies a stripe's live entries into a new table, doubled if they fill
+     * more than half the load factor; otherwise the same size, which just
+     * sweeps out the tombstones.
+     */
+    @GuardedBy("stripe")
+    private void rehash(Stripe<V> stripe, Table<V> table) {
+        int size = table.keys.length();
+        if (stripe.size > size * LOAD_FACTOR / 2 && size < MAX_TABLE)
+            size *= 2;
+        Table<V> rehashed = new Table<V>(size);
+        int mask = size - 1;
+        for (int i = 0; i < table.keys.length(); i++) {
+            V value = table.values.get(i);
+            if (value == null)
+                continue;
+            long key = table.keys.get(i);
+            int j = (int) hash(key) & mask;
+            while (rehashed.keys.get(j) != EMPTY)
+                j = (j + 1) & mask;
+            rehashed.keys.lazySet(j, key);
+            rehashed.values.lazySet(j, value);
+        }
+        stripe.used = stripe.size;
+        stripe.table = rehashed;
+    }
+
+    public void clear() {
+        for (Stripe<V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.table = new Table<V>(stripe.table.keys.length());
+                stripe.size = 0;
+                stripe.used = 0;
+            }
+        }
+        synchronized (this) {
+            zeroKeyValue = null;
+        }
+    }
+
+    public int size() {
+        long n = (zeroKeyValue != null) ? 1 : 0;
+        for (Stripe<V> stripe : stripes)
+            n += stripe.size;
+        return (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        if (zeroKeyValue != null)
+            return false;
+        for (Stripe<V> stripe : stripes)
+            if (stripe.size != 0)
+                return false;
+        return true;
+    }
+}
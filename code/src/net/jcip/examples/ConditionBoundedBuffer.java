@@ -1,5 +1,6 @@
 package net.jcip.examples;
 
+import java.util.Collection;
 import java.util.concurrent.locks.*;
 
 import net.jcip.annotations.*;
@@ -13,16 +14,27 @@ import net.jcip.annotations.*;
  */
 
 @ThreadSafe
-public class ConditionBoundedBuffer <T> {
+public class ConditionBoundedBuffer <T> implements BlockingBuffer<T> {
     protected final Lock lock = new ReentrantLock();
     // CONDITION PREDICATE: notFull (count < items.length)
     private final Condition notFull = lock.newCondition();
     // CONDITION PREDICATE: notEmpty (count > 0)
     private final Condition notEmpty = lock.newCondition();
     private static final int BUFFER_SIZE = 100;
-    @GuardedBy("lock") private final T[] items = (T[]) new Object[BUFFER_SIZE];
+    @GuardedBy("lock") private final T[] items;
     @GuardedBy("lock") private int tail, head, count;
 
+    public ConditionBoundedBuffer() {
+        this(BUFFER_SIZE);
+    }
+
+    public ConditionBoundedBuffer(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        @SuppressWarnings("unchecked") T[] items = (T[]) new Object[capacity];
+        this.items = items;
+    }
+
     // BLOCKS-UNTIL: notFull
     public void put(T x) throws InterruptedException {
         lock.lock();
@@ -56,4 +68,76 @@ public class ConditionBoundedBuffer <T> {
             lock.unlock();
         }
     }
+
+    // BLOCKS-UNTIL: notFull, as often as it takes to put all of them
+    public void putAll(T[] src, int off, int len) throws InterruptedException {
+        lock.lock();
+        try {
+            while (len > 0) {
+                while (count == items.length)
+                    notFull.await();
+                int n = Math.min(len, items.length - count);
+                for (int i = 0; i < n; i++) {
+                    items[tail] = src[off++];
+                    if (++tail == items.length)
+                        tail = 0;
+                }
+                count += n;
+                len -= n;
+                notEmpty.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // BLOCKS-UNTIL: notEmpty
+    public int takeBatch(T[] dst) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0)
+                notEmpty.await();
+            int n = Math.min(dst.length, count);
+            for (int i = 0; i < n; i++)
+                dst[i] = extract();
+            notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<? super T> c, int max) {
+        if (max <= 0)
+            return 0;
+        lock.lock();
+        try {
+            int n = Math.min(max, count);
+            int i = 0;
+            try {
+                // Removed only once c has accepted it, so that an item c
+                // rejects stays in the buffer
+                for (; i < n; i++) {
+                    c.add(items[head]);
+                    extract();
+                }
+            } finally {
+                if (i > 0)
+                    notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private T extract() {
+        T x = items[head];
+        items[head] = null;
+        if (++head == items.length)
+            head = 0;
+        --count;
+        return x;
+    }
 }
@@ -0,0 +1,351 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+import net.jcip.annotations.*;
+
+/**
+ * CopyOnWriteMap
+ * <p/>
+ * Map that publishes an immutable snapshot through a volatile reference on every write
+ * <p/>
+ * The current contents are a Snapshot: an open addressing table, keys and
+ * values side by side in one array, that is never changed once published.
+ * Reads go to whatever snapshot is current and are wait-free, and
+ * snapshot() hands out the current one, a consistent, immutable view, in
+ * constant time rather than by copying. Writers serialize on the map's
+ * lock, copy the current table, change the copy and publish it. Every
+ * write costs a copy of the whole table, so changes that go together
+ * should be made in one Transaction, which applies them all in a single
+ * copy. This suits maps that are read far more often than written, such
+ * as configuration, or whose writes come in batches.
+ * <p/>
+ * Null keys and values are not allowed. Iterators traverse the snapshot
+ * that was current when they were created, and do not support removal.
+ */
+@ThreadSafe
+public class CopyOnWriteMap <K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    @GuardedBy("this") private volatile Snapshot<K, V> current;
+
+    public CopyOnWriteMap() {
+        current = Snapshot.empty();
+    }
+
+    public CopyOnWriteMap(Map<? extends K, ? extends V> map) {
+        current = snapshotOf(map);
+    }
+
+    /** Returns an immutable copy of map, with the reads of a CopyOnWriteMap */
+    public static <K, V> Snapshot<K, V> snapshotOf(Map<? extends K, ? extends V> map) {
+        Builder<K, V> builder = new Builder<K, V>(Snapshot.<K, V>empty(), map.size());
+        for (Entry<? extends K, ? extends V> e : map.entrySet())
+            builder.put(e.getKey(), e.getValue());
+        return builder.build();
+    }
+
+    /** The current contents, which later writes leave untouched */
+    public Snapshot<K, V> snapshot() {
+        return current;
+    }
+
+    public V get(Object key) {
+        return current.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        return current.containsKey(key);
+    }
+
+    public int size() {
+        return current.size();
+    }
+
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            public Iterator<Entry<K, V>> iterator() {
+                return current.entrySet().iterator();
+            }
+
+            public int size() {
+                return current.size();
+            }
+        };
+    }
+
+    public synchronized V put(K key, V value) {
+        Builder<K, V> builder = new Builder<K, V>(current, 1);
+        V old = builder.put(key, value);
+        current = builder.build();
+        return old;
+    }
+
+    public synchronized V putIfAbsent(K key, V value) {
+        V old = current.get(key);
+        return (old != null) ? old : put(key, value);
+    }
+
+    public synchronized void putAll(Map<? extends K, ? extends V> map) {
+        Builder<K, V> builder = new Builder<K, V>(current, map.size());
+        for (Entry<? extends K, ? extends V> e : map.entrySet())
+            builder.put(e.getKey(), e.getValue());
+        current = builder.build();
+    }
+
+    public synchronized V remove(Object key) {
+        if (!current.containsKey(key))
+            return null;
+        Builder<K, V> builder = new Builder<K, V>(current, 0);
+        V old = builder.remove(key);
+        current = builder.build();
+        return old;
+    }
+
+    public synchronized boolean remove(Object key, Object value) {
+        V old = current.get(key);
+        if (old == null || !old.equals(value))
+            return false;
+        remove(key);
+        return true;
+    }
+
+    public synchronized boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            throw new NullPointerException();
+        V old = current.get(key);
+        if (old == null || !old.equals(oldValue))
+            return false;
+        put(key, newValue);
+        return true;
+    }
+
+    public synchronized V replace(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        return current.containsKey(key) ? put(key, value) : null;
+    }
+
+    public synchronized void clear() {
+        current = Snapshot.empty();
+    }
+
+    /** Starts a transaction, whose changes are applied together, in one copy, on commit */
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    /**
+     * A batch of puts and removes, recorded by one thread and applied to
+     * the map atomically by commit. Changes are applied to whatever the map
+     * holds at commit, last change to a key winning; there is no check for
+     * writes that other threads committed meanwhile.
+     */
+    @NotThreadSafe
+    public class Transaction {
+        private final Map<K, V> changes = new LinkedHashMap<K, V>(); // a null value stands for a removal
+        private boolean committed;
+
+        public Transaction put(K key, V value) {
+            if (key == null || value == null)
+                throw new NullPointerException();
+            changes.put(key, value);
+            return this;
+        }
+
+        public Transaction remove(K key) {
+            if (key == null)
+                throw new NullPointerException();
+            changes.put(key, null);
+            return this;
+        }
+
+        /** Applies the changes and returns the snapshot they produced */
+        public Snapshot<K, V> commit() {
+            if (committed)
+                throw new IllegalStateException("already committed");
+            committed = true;
+            synchronized (CopyOnWriteMap.this) {
+                Builder<K, V> builder = new Builder<K, V>(current, changes.size());
+                for (Entry<K, V> e : changes.entrySet()) {
+                    if (e.getValue() == null)
+                        builder.remove(e.getKey());
+                    else
+                        builder.put(e.getKey(), e.getValue());
+                }
+                current = builder.build();
+                return current;
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9; // clustering hurts linear probing, so mix the bits
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Immutable map in an open addressing table: the key of slot i is at
+     * 2i and its value at 2i+1, a null key marking an empty slot. Linear
+     * probing over a table at most half full finds a key, or the empty slot
+     * that ends its search, in a few probes.
+     */
+    @Immutable
+    public static final class Snapshot <K, V> extends AbstractMap<K, V> {
+        private static final Snapshot<Object, Object> EMPTY = new Snapshot<Object, Object>(new Object[4], 0);
+        private final Object[] table;
+        private final int size;
+
+        private Snapshot(Object[] table, int size) {
+            this.table = table;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked") // holds no keys or values of any type
+        static <K, V> Snapshot<K, V> empty() {
+            return (Snapshot<K, V>) EMPTY;
+        }
+
+        /** Returns key's index in table, or the index of the empty slot where it would go */
+        private static int probe(Object[] table, Object key) {
+            int mask = table.length - 2;
+            for (int i = (hash(key) << 1) & mask; ; i = (i + 2) & mask) {
+                Object k = table[i];
+                if (k == null || k.equals(key))
+                    return i;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            if (key == null)
+                return null;
+            int i = probe(table, key);
+            return (V) table[i + 1];
+        }
+
+        public boolean containsKey(Object key) {
+            return key != null && table[probe(table, key)] != null;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Set<Entry<K, V>> entrySet() {
+            return new AbstractSet<Entry<K, V>>() {
+                public Iterator<Entry<K, V>> iterator() {
+                    return new Iterator<Entry<K, V>>() {
+                        private int next = advance(0);
+
+                        private int advance(int i) {
+                            while (i < table.length && table[i] == null)
+                                i += 2;
+                            return i;
+                        }
+
+                        public boolean hasNext() {
+                            return next < table.length;
+                        }
+
+                        @SuppressWarnings("unchecked")
+                        public Entry<K, V> next() {
+                            if (next >= table.length)
+                                throw new NoSuchElementException();
+                            int i = next;
+                            next = advance(i + 2);
+                            return new SimpleImmutableEntry<K, V>((K) table[i], (V) table[i + 1]);
+                        }
+                    };
+                }
+
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+
+    /** Makes a changed copy of a snapshot; its table is private until build publishes it */
+    @NotThreadSafe
+    private static class Builder <K, V> {
+        private Object[] table;
+        private int size;
+
+        /** Copies from, with room for at least extra more entries */
+        Builder(Snapshot<K, V> from, int extra) {
+            size = from.size;
+            int needed = tableLengthFor(size + extra);
+            if (needed <= from.table.length) {
+                table = from.table.clone();
+            } else {
+                table = new Object[needed];
+                rehash(from.table);
+            }
+        }
+
+        /** Two slots per entry, in a table that stays at most half full */
+        private static int tableLengthFor(int entries) {
+            int slots = Math.max(2, Integer.highestOneBit(Math.max(1, entries)) << 2);
+            return 2 * slots;
+        }
+
+        private void rehash(Object[] from) {
+            for (int i = 0; i < from.length; i += 2) {
+                if (from[i] != null) {
+                    int j = Snapshot.probe(table, from[i]);
+                    table[j] = from[i];
+                    table[j + 1] = from[i + 1];
+                }
+            }
+        }
+
+        V put(K key, V value) {
+            if (key == null || value == null)
+                throw new NullPointerException();
+            int i = Snapshot.probe(table, key);
+            @SuppressWarnings("unchecked") V old = (V) table[i + 1];
+            if (table[i] == null) {
+                if (table.length < tableLengthFor(size + 1)) {
+                    Object[] from = table;
+                    table = new Object[tableLengthFor(size + 1)];
+                    rehash(from);
+                    i = Snapshot.probe(table, key);
+                }
+                table[i] = key;
+                size++;
+            }
+            table[i + 1] = value;
+            return old;
+        }
+
+        /** Deletes by shifting back the entries after it in its run, so no tombstones are needed */
+        V remove(Object key) {
+            int i = Snapshot.probe(table, key);
+            if (table[i] == null)
+                return null;
+            @SuppressWarnings("unchecked") V old = (V) table[i + 1];
+            int mask = table.length - 2;
+            for (int j = (i + 2) & mask; table[j] != null; j = (j + 2) & mask) {
+                // The entry at j can move into the hole at i unless its home slot lies cyclically in (i, j]
+                int home = (hash(table[j]) << 1) & mask;
+                if ((j > i) ? (home <= i || home > j) : (home <= i && home > j)) {
+                    table[i] = table[j];
+                    table[i + 1] = table[j + 1];
+                    i = j;
+                }
+            }
+            table[i] = null;
+            table[i + 1] = null;
+            size--;
+            return old;
+        }
+
+        Snapshot<K, V> build() {
+            return new Snapshot<K, V>(table, size);
+        }
+    }
+}
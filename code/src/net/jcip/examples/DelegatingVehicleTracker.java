@@ -1,7 +1,10 @@
 package net.jcip.examples;
 
 import java.util.*;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 import java.awt.*;
 import java.awt.Point;
 
@@ -11,6 +14,17 @@ import net.jcip.annotations.*;
  * DelegatingVehicleTracker
  * <p/>
  * Delegating thread safety to a ConcurrentHashMap
+ * <p/>
+ * getLocationsAsStatic hands out an immutable CopyOnWriteMap.Snapshot of
+ * the locations, which is shared by every caller until the next update,
+ * rather than a new copy for each; setLocations, for a fleet that reports
+ * in batches, publishes a fresh one after each batch, so that readers do
+ * not have to copy at all.
+ * <p/>
+ * A SpatialGrid of the locations answers area and nearest-vehicle
+ * queries without scanning the map. Each vehicle's grid update is made
+ * inside the map's update of that vehicle's entry, so that the grid sees
+ * a vehicle's moves in the same order as the map does.
  *
  * @author Brian Goetz and Tim Peierls
  */
@@ -18,10 +32,27 @@ import net.jcip.annotations.*;
 public class DelegatingVehicleTracker {
     private final ConcurrentMap<String, Point> locations;
     private final Map<String, Point> unmodifiableMap;
+    private final SpatialGrid<String> grid = new SpatialGrid<String>(GRID_CELL_SIZE);
+    private static final int GRID_CELL_SIZE = 100; // about the radius of a typical query
+    private final AtomicLong version = new AtomicLong(); // counts updates, after they are made
+    private volatile Published published;
+
+    /** A snapshot, and the number of updates it is known to include */
+    private static class Published {
+        final long version;
+        final Map<String, Point> snapshot;
+
+        Published(long version, Map<String, Point> snapshot) {
+            this.version = version;
+            this.snapshot = snapshot;
+        }
+    }
 
     public DelegatingVehicleTracker(Map<String, Point> points) {
         locations = new ConcurrentHashMap<String, Point>(points);
         unmodifiableMap = Collections.unmodifiableMap(locations);
+        for (Map.Entry<String, Point> e : locations.entrySet())
+            grid.put(e.getKey(), e.getValue().x, e.getValue().y);
     }
 
     public Map<String, Point> getLocations() {
@@ -33,14 +64,54 @@ public class DelegatingVehicleTracker {
     }
 
     public void setLocation(String id, int x, int y) {
-        if (locations.replace(id, new Point(x, y)) == null)
+        if (move(id, x, y) == null)
             throw new IllegalArgumentException("invalid vehicle name: " + id);
+        version.incrementAndGet();
+    }
+
+    private Point move(String id, final int x, final int y) {
+        return locations.computeIfPresent(id, new BiFunction<String, Point, Point>() {
+            public Point apply(String id, Point old) {
+                grid.put(id, x, y);
+                return new Point(x, y);
+            }
+        });
+    }
+
+    /** Updates many vehicles, then publishes a snapshot for getLocationsAsStatic */
+    public void setLocations(Map<String, Point> newLocations) {
+        for (String id : newLocations.keySet())
+            if (!locations.containsKey(id))
+                throw new IllegalArgumentException("invalid vehicle name: " + id);
+        for (Map.Entry<String, Point> e : newLocations.entrySet())
+            move(e.getKey(), e.getValue().x, e.getValue().y);
+        long v = version.addAndGet(newLocations.size());
+        published = new Published(v, CopyOnWriteMap.snapshotOf(locations));
+    }
+
+    public List<String> getVehiclesWithin(int x, int y, int radius) {
+        return grid.withinRadius(x, y, radius);
+    }
+
+    public List<String> getVehiclesInBox(int minX, int minY, int maxX, int maxY) {
+        return grid.withinBox(minX, minY, maxX, maxY);
+    }
+
+    /** Returns the ids of the k vehicles nearest (x, y), nearest first */
+    public List<String> getNearestVehicles(int x, int y, int k) {
+        return grid.nearest(x, y, k);
     }
 
-    // Alternate version of getLocations (Listing 4.8)
+    // Alternate version of getLocations (Listing 4.8); the copy is made only
+    // when there has been an update since the last one
     public Map<String, Point> getLocationsAsStatic() {
-        return Collections.unmodifiableMap(
-                new HashMap<String, Point>(locations));
+        long v = version.get();
+        Published p = published;
+        if (p != null && p.version == v)
+            return p.snapshot;
+        // Taken after reading v, so it includes at least the updates v counts
+        Map<String, Point> snapshot = CopyOnWriteMap.snapshotOf(locations);
+        published = new Published(v, snapshot);
+        return snapshot;
     }
 }
-
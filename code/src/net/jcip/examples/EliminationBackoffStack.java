@@ -0,0 +1,139 @@
+package net.jcip.examples;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * EliminationBackoffStack
+ * <p/>
+ * Treiber stack that backs off into an elimination array, where a push and a pop can cancel out
+ * <p/>
+ * Each operation first tries the CAS on top, as in ConcurrentStack. If the
+ * CAS fails, rather than retrying straight away against the same hot spot,
+ * the thread visits a random slot of the elimination arena: if it finds an
+ * operation of the other kind waiting there, the two complete each other
+ * (the pop returns the push's item) without touching top; otherwise it
+ * waits in the slot for a partner for a short while before going back to
+ * the stack. A push and a pop that meet are linearized one right after
+ * the other, so the stack never sees them.
+ * <p/>
+ * The part of the arena in use adapts to contention: it widens when a
+ * thread finds its slot taken by an operation of its own kind, and narrows
+ * when a thread waits in a slot without a partner turning up.
+ */
+@ThreadSafe
+public class EliminationBackoffStack <E> {
+    private static final int MAX_ARENA = 32;
+    private static final int SPINS = 1 << 7; // waiting for a partner
+    private static final int YIELD_AFTER = 1 << 4; // spins before yielding, waiting for a handoff
+
+    private final AtomicReference<Node<E>> top = new AtomicReference<Node<E>>();
+    private final AtomicReferenceArray<Offer<E>> arena = new AtomicReferenceArray<Offer<E>>(MAX_ARENA);
+    private volatile int arenaSize = 1; // updated without synchronization; a lost update does no harm
+
+    /** item must not be null, as pop returns null when the stack is empty */
+    public void push(E item) {
+        if (item == null)
+            throw new NullPointerException();
+        Node<E> newHead = new Node<E>(item);
+        Offer<E> offer = null;
+        while (true) {
+            Node<E> oldHead = top.get();
+            newHead.next = oldHead;
+            if (top.compareAndSet(oldHead, newHead))
+                return;
+            if (offer == null)
+                offer = new Offer<E>(item);
+            if (eliminate(offer))
+                return;
+        }
+    }
+
+    public E pop() {
+        Offer<E> offer = null;
+        while (true) {
+            Node<E> oldHead = top.get();
+            if (oldHead == null)
+                return null;
+            if (top.compareAndSet(oldHead, oldHead.next))
+                return oldHead.item;
+            if (offer == null)
+                offer = new Offer<E>(null);
+            if (eliminate(offer))
+                return offer.received;
+        }
+    }
+
+    public boolean isEmpty() {
+        return top.get() == null;
+    }
+
+    /**
+     * Tries to meet an operation of the other kind in the arena; returns
+     * true if mine was completed by, or completed, a partner.
+     */
+    private boolean eliminate(Offer<E> mine) {
+        int size = arenaSize;
+        int i = ThreadLocalRandom.current().nextInt(size);
+        Offer<E> other = arena.get(i);
+        if (other == null) {
+            if (!arena.compareAndSet(i, null, mine))
+                return false;
+            for (int spin = 0; spin < SPINS; spin++)
+                if (arena.get(i) != mine)
+                    return matched(mine);
+            if (arena.compareAndSet(i, mine, null)) { // nobody came
+                if (size > 1)
+                    arenaSize = size - 1;
+                return false;
+            }
+            return matched(mine);
+        }
+        if (other.isPush() != mine.isPush()) {
+            if (!arena.compareAndSet(i, other, null))
+                return false;
+            if (mine.isPush())
+                other.received = mine.item;
+            else
+                mine.received = other.item;
+            return true;
+        }
+        if (size < MAX_ARENA) // a crowd of our own kind
+            arenaSize = size + 1;
+        return false;
+    }
+
+    /** Called once a partner has taken mine out of the arena */
+    private boolean matched(Offer<E> mine) {
+        // A pop waits for its partner to hand over the item
+        for (int spin = 0; !mine.isPush() && mine.received == null; spin++)
+            if (spin >= YIELD_AFTER)
+                Thread.yield();
+        return true;
+    }
+
+    private static class Node <E> {
+        public final E item;
+        public Node<E> next;
+
+        public Node(E item) {
+            this.item = item;
+        }
+    }
+
+    /** A push (with its item) or a pop (whose item is handed to it) waiting in the arena */
+    private static class Offer <E> {
+        final E item; // null for a pop
+        volatile E received;
+
+        Offer(E item) {
+            this.item = item;
+        }
+
+        boolean isPush() {
+            return item != null;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import javax.servlet.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * EncodedFactors
+ * <p/>
+ * Factors together with their response body, encoded once when computed
+ * <p/>
+ * A cache that stores these rather than the bare factors can answer a hit
+ * by copying the stored bytes to the response stream: no defensive copy of
+ * the factors, no formatting and no encoding per request. The body is the
+ * factors in decimal, separated by spaces and terminated by a newline.
+ */
+@Immutable
+public final class EncodedFactors {
+    public static final String CONTENT_TYPE = "text/plain; charset=US-ASCII";
+
+    private final BigInteger[] factors;
+    private final byte[] body;
+
+    public EncodedFactors(BigInteger[] factors) {
+        this.factors = factors.clone();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < factors.length; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(factors[i]);
+        }
+        this.body = sb.append('\n').toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public List<BigInteger> getFactors() {
+        return Collections.unmodifiableList(Arrays.asList(factors.clone()));
+    }
+
+    public int getContentLength() {
+        return body.length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(body, 0, body.length);
+    }
+
+    public void writeTo(ServletResponse resp) throws IOException {
+        resp.setContentType(CONTENT_TYPE);
+        resp.setContentLength(body.length);
+        writeTo(resp.getOutputStream());
+    }
+}
@@ -0,0 +1,16 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * EntryCodec
+ * <p/>
+ * Binary encoding of cache keys or values for MemoizerSnapshot
+ */
+public interface EntryCodec <T> {
+    void encode(T value, DataOutput out) throws IOException;
+
+    /** Decodes a value from in, which holds exactly the bytes encode wrote */
+    T decode(ByteBuffer in);
+}
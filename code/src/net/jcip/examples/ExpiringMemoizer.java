@@ -0,0 +1,275 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * ExpiringMemoizer
+ * <p/>
+ * Memoizer whose entries expire after write and/or after access, with
+ * optional refresh-ahead
+ * <p/>
+ * Each completed entry carries its own write and access times; an entry is
+ * expired once either configured duration has elapsed since the matching
+ * time. Reads never return an expired entry: they check the deadline
+ * themselves and treat an expired entry as absent. Expired entries are
+ * removed from the map by a TimerWheel, advanced at most once per wheel
+ * tick by whichever thread finds the wheel lock free, so removal costs
+ * nothing per entry that has not expired.
+ * <p/>
+ * Reads do not reschedule their timer. When a timer fires early because
+ * the entry was accessed since it was scheduled, it is simply rescheduled
+ * to the entry's current deadline.
+ * <p/>
+ * With refresh-ahead enabled, the first read after refreshAfterWrite has
+ * elapsed recomputes the value on the executor. Readers keep getting the
+ * old value until the new one is ready; if the refresh fails, the old value
+ * is kept until it expires.
+ * <p/>
+ * A failed load is not cached. The callers that were waiting for it get its
+ * failure, and the next call computes again. A load interrupted on the
+ * caller's thread throws InterruptedException there, and the callers
+ * waiting for it start over.
+ */
+@ThreadSafe
+public class ExpiringMemoizer <A, V> implements Computable<A, V> {
+    private final ConcurrentMap<A, Node> cache
+            = new ConcurrentHashMap<>();
+    private final Computable<A, V> c;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    private final long refreshAfterWriteNanos;
+    private final Executor executor;
+    private final long origin = System.nanoTime();
+    private final StatsCounter stats = new StatsCounter();
+
+    private final Lock wheelLock = new ReentrantLock();
+    @GuardedBy("wheelLock") private final TimerWheel<Node> wheel;
+    // Wheel tick of the last maintenance run, so that reads skip the lock in between
+    private volatile long lastTick;
+
+    /**
+     * Creates a memoizer whose entries expire expireAfterWrite after they were
+     * computed and expireAfterAccess after they were last read; a duration of
+     * zero disables that kind of expiry.
+     */
+    public ExpiringMemoizer(Computable<A, V> c, long expireAfterWrite,
+                            long expireAfterAccess, TimeUnit unit) {
+        this(c, expireAfterWrite, expireAfterAccess, 0, unit, null);
+    }
+
+    /**
+     * As above, and entries read refreshAfterWrite or more after they were
+     * computed are recomputed in the background on executor.
+     */
+    public ExpiringMemoizer(Computable<A, V> c, long expireAfterWrite,
+                            long expireAfterAccess, long refreshAfterWrite,
+                            TimeUnit unit, Executor executor) {
+        if (expireAfterWrite < 0 || expireAfterAccess < 0 || refreshAfterWrite < 0)
+            throw new IllegalArgumentException();
+        if (refreshAfterWrite > 0 && executor == null)
+            throw new IllegalArgumentException("refresh requires an executor");
+        this.c = stats.instrument(c);
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.expireAfterAccessNanos = unit.toNanos(expireAfterAccess);
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+        this.executor = executor;
+        this.wheel = new TimerWheel<>(ticker());
+    }
+
+    public V compute(final A arg) throws InterruptedException {
+        while (true) {
+            long now = ticker();
+            maybeCleanUp(now);
+            boolean loaded = false;
+            Node n = cache.get(arg);
+            if (n != null && n.isExpired(now)) {
+                // The wheel may not have got to it yet; treat it as absent
+                if (cache.remove(arg, n))
+                    stats.recordEviction();
+                continue;
+            }
+            if (n == null) {
+                Node node = new Node(arg, newTask(arg));
+                n = cache.putIfAbsent(arg, node);
+                if (n == null) {
+                    n = node;
+                    stats.recordMisses(1);
+                    node.future.run();
+                    loaded = true;
+                } else
+                    stats.recordHits(1);
+            } else
+                stats.recordHits(1);
+            try {
+                V value = n.future.get();
+                if (loaded)
+                    afterWrite(n);
+                else
+                    afterRead(n, now);
+                return value;
+            } catch (CancellationException e) {
+                cache.remove(arg, n);
+            } catch (ExecutionException e) {
+                // Failures are not cached: those waiting for this load get
+                // its failure, and the next caller computes again
+                cache.remove(arg, n);
+                if (e.getCause() instanceof InterruptedException) {
+                    // Only the loading thread was interrupted; the others retry
+                    if (loaded)
+                        throw (InterruptedException) e.getCause();
+                    continue;
+                }
+                throw LaunderThrowable.launderThrowable(e.getCause());
+            }
+        }
+    }
+
+    /** Removes the expired entries now rather than on the next wheel tick */
+    public void cleanUp() {
+        wheelLock.lock();
+        try {
+            expireEntries(ticker());
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /** Returns the number of entries, including expired ones not yet removed */
+    public int size() {
+        return cache.size();
+    }
+
+    private FutureTask<V> newTask(final A arg) {
+        return new FutureTask<>(new Callable<V>() {
+            public V call() throws InterruptedException {
+                return c.compute(arg);
+            }
+        });
+    }
+
+    private long ticker() {
+        return System.nanoTime() - origin;
+    }
+
+    private void afterWrite(Node n) {
+        long now = ticker();
+        n.writeTime = now;
+        n.accessTime = now;
+        n.completed = true;
+        if (expireAfterWriteNanos == 0 && expireAfterAccessNanos == 0)
+            return;
+        wheelLock.lock();
+        try {
+            if (cache.get(n.key) == n)
+                wheel.schedule(n, n.expiresAt());
+            expireEntries(now);
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    private void afterRead(Node n, long now) {
+        // A reader that waited for the load can get here before the loader
+        // has stamped the write time, which would make any entry look stale
+        if (!n.completed)
+            return;
+        if (expireAfterAccessNanos > 0)
+            n.accessTime = now;
+        if (refreshAfterWriteNanos > 0
+                && now - n.writeTime >= refreshAfterWriteNanos
+                && n.refreshing.compareAndSet(false, true))
+            refresh(n);
+    }
+
+    private void refresh(final Node n) {
+        final FutureTask<V> task = newTask(n.key);
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                        task.get();
+                        // Publish the new value; the old one was served until now
+                        n.future = task;
+                        n.writeTime = ticker();
+                    } catch (ExecutionException e) {
+                        // Keep serving the old value until it expires
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        n.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            n.refreshing.set(false);
+        }
+    }
+
+    private void maybeCleanUp(long now) {
+        if (expireAfterWriteNanos == 0 && expireAfterAccessNanos == 0)
+            return;
+        long tick = now >>> 30;
+        if (tick == lastTick || !wheelLock.tryLock())
+            return;
+        try {
+            expireEntries(now);
+        } finally {
+            wheelLock.unlock();
+        }
+    }
+
+    @GuardedBy("wheelLock")
+    private void expireEntries(long now) {
+        lastTick = now >>> 30;
+        List<Node> fired = new ArrayList<>();
+        wheel.advance(now, fired);
+        for (Node n : fired) {
+            long deadline = n.expiresAt();
+            if (deadline - now > 0 && cache.get(n.key) == n)
+                wheel.schedule(n, deadline);
+            else if (cache.remove(n.key, n))
+                stats.recordEviction();
+        }
+    }
+
+    private static long saturatedAdd(long time, long duration) {
+        long sum = time + duration;
+        return (sum < time) ? Long.MAX_VALUE : sum;
+    }
+
+    private final class Node extends TimerWheel.Timer {
+        final A key;
+        volatile FutureTask<V> future;
+        volatile long writeTime, accessTime;
+        volatile boolean completed;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Node(A key, FutureTask<V> future) {
+            this.key = key;
+            this.future = future;
+        }
+
+        long expiresAt() {
+            long deadline = Long.MAX_VALUE;
+            if (expireAfterWriteNanos > 0)
+                deadline = saturatedAdd(writeTime, expireAfterWriteNanos);
+            if (expireAfterAccessNanos > 0)
+                deadline = Math.min(deadline, saturatedAdd(accessTime, expireAfterAccessNanos));
+            return deadline;
+        }
+
+        boolean isExpired(long now) {
+            return completed && now - expiresAt() >= 0;
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package net.jcip.examples;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * FactorizationEngine
+ * <p/>
+ * Integer factorization by trial division, Miller-Rabin and Pollard-Brent rho
+ * <p/>
+ * Small factors are removed by trial division with a table of small
+ * primes. What remains is tested with Miller-Rabin and, if composite,
+ * split with Brent's variant of Pollard's rho.
+ * <p/>
+ * Numbers below 2^63 take a long-only path that allocates no BigIntegers:
+ * arithmetic modulo n is done in Montgomery form, so the modular
+ * multiplications in the hot loops need no division, and Miller-Rabin is
+ * deterministic for that range. Larger composites are split by several rho
+ * instances with different polynomials racing on a ForkJoinPool; the first
+ * factor found wins and the other racers are stopped. By default the racers
+ * run on a pool of the engine's own rather than the common pool, which the
+ * rest of the application shares.
+ * <p/>
+ * Rho takes time in proportion to the square root of the smallest factor,
+ * so a product of two large primes can keep every racer busy for a long
+ * time, and a servlet thread is never interrupted to stop it. Numbers with
+ * more than maxBits bits are therefore rejected with an
+ * IllegalArgumentException; by default that is 80 bits, which takes around
+ * a second on a single core.
+ * <p/>
+ * Both paths check for interruption while they work and throw
+ * InterruptedException, so a factorization running inside a Memoizer can be
+ * cancelled.
+ */
+@ThreadSafe
+public class FactorizationEngine {
+    private static final int SMALL_PRIME_LIMIT = 1 << 16;
+    // The long path stops trial division early: a 64-bit division costs about
+    // as much as a rho step, and rho finds mid-sized factors sooner
+    private static final int LONG_TRIAL_LIMIT = 1 << 11;
+    private static final int[] SMALL_PRIMES = sieve(SMALL_PRIME_LIMIT);
+    private static final BigInteger[] BIG_SMALL_PRIMES = new BigInteger[SMALL_PRIMES.length];
+    // Witnesses that make Miller-Rabin deterministic below 2^64
+    private static final long[] WITNESSES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+    private static final BigInteger LONG_LIMIT = BigInteger.ONE.shiftLeft(63);
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    public static final int DEFAULT_MAX_BITS = 80;
+    private static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool();
+    // Rho iterations between gcds, and between interruption checks
+    private static final int BATCH = 128;
+
+    static {
+        for (int i = 0; i < SMALL_PRIMES.length; i++)
+            BIG_SMALL_PRIMES[i] = BigInteger.valueOf(SMALL_PRIMES[i]);
+    }
+
+    private final ForkJoinPool pool;
+    private final int racers;
+    private final int maxBits;
+
+    public FactorizationEngine() {
+        this(DEFAULT_POOL, DEFAULT_MAX_BITS);
+    }
+
+    /** Races rho on pool, and rejects numbers with more than maxBits bits */
+    public FactorizationEngine(ForkJoinPool pool, int maxBits) {
+        if (maxBits <= 0)
+            throw new IllegalArgumentException();
+        this.pool = pool;
+        this.racers = Math.max(1, pool.getParallelism());
+        this.maxBits = maxBits;
+    }
+
+    /**
+     * Returns the prime factors of n in ascending order, with multiplicity.
+     * Numbers below 2 have no prime factorization and are returned as is.
+     *
+     * @throws IllegalArgumentException if n has more than maxBits bits
+     */
+    public BigInteger[] factor(BigInteger n) throws InterruptedException {
+        if (n.bitLength() > maxBits)
+            throw new IllegalArgumentException("more than " + maxBits + " bits: " + n);
+        if (n.compareTo(TWO) < 0)
+            return new BigInteger[]{n};
+        if (n.compareTo(LONG_LIMIT) < 0)
+            return toBigIntegers(factor(n.longValue()));
+
+        List<BigInteger> factors = new ArrayList<BigInteger>();
+        for (int i = 0; i < BIG_SMALL_PRIMES.length && n.compareTo(LONG_LIMIT) >= 0; i++) {
+            BigInteger p = BIG_SMALL_PRIMES[i];
+            BigInteger[] qr;
+            while ((qr = n.divideAndRemainder(p))[1].signum() == 0) {
+                factors.add(p);
+                n = qr[0];
+            }
+        }
+        Deque<BigInteger> pending = new ArrayDeque<BigInteger>();
+        pending.push(n);
+        while (!pending.isEmpty()) {
+            BigInteger m = pending.pop();
+            if (m.equals(BigInteger.ONE))
+                continue;
+            if (m.compareTo(LONG_LIMIT) < 0) {
+                for (long f : factor(m.longValue()))
+                    factors.add(BigInteger.valueOf(f));
+            } else if (isProbablePrime(m))
+                factors.add(m);
+            else {
+                BigInteger d = findFactor(m);
+                pending.push(d);
+                pending.push(m.divide(d));
+            }
+        }
+        Collections.sort(factors);
+        return factors.toArray(new BigInteger[factors.size()]);
+    }
+
+    /**
+     * Returns the prime factors of n in ascending order, with multiplicity,
+     * without allocating any BigIntegers. Numbers below 2 are returned as is.
+     */
+    public long[] factor(long n) throws InterruptedException {
+        if (n < 2)
+            return new long[]{n};
+        long[] factors = new long[64]; // n < 2^63 has at most 62 prime factors
+        int count = 0;
+        for (int p : SMALL_PRIMES) {
+            if (p >= LONG_TRIAL_LIMIT || (long) p * p > n)
+                break;
+            while (n % p == 0) {
+                factors[count++] = p;
+                n /= p;
+            }
+        }
+        if (n != 1) {
+            if (n < (long) LONG_TRIAL_LIMIT * LONG_TRIAL_LIMIT)
+                factors[count++] = n; // no factor below its square root
+            else
+                count = factorLarge(n, factors, count);
+        }
+        Arrays.sort(factors, 0, count);
+        return Arrays.copyOf(factors, count);
+    }
+
+    private static int factorLarge(long n, long[] factors, int count)
+            throws InterruptedException {
+        if (isProbablePrime(n)) {
+            factors[count++] = n;
+            return count;
+        }
+        long d = n;
+        for (long c = 1; d == n; c++)
+            d = rho(n, c);
+        count = factorLarge(d, factors, count);
+        return factorLarge(n / d, factors, count);
+    }
+
+    // ---- Miller-Rabin ----
+
+    /** Deterministic primality test for 0 <= n < 2^63 */
+    public static boolean isProbablePrime(long n) {
+        if (n < 2)
+            return false;
+        for (long w : WITNESSES) {
+            if (n % w == 0)
+                return n == w;
+        }
+        long negInv = montgomeryNegInverse(n);
+        long one = montgomeryOne(n);
+        long minusOne = n - one;
+        long r2 = montgomeryR2(n, one);
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>>= s;
+        witness:
+        for (long w : WITNESSES) {
+            long x = montgomeryPow(mulMod(w, r2, n, negInv), d, one, n, negInv);
+            if (x == one || x == minusOne)
+                continue;
+            for (int i = 1; i < s; i++) {
+                x = mulMod(x, x, n, negInv);
+                if (x == minusOne)
+                    continue witness;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /** Miller-Rabin with the first 24 primes as bases; deterministic below 3.3 * 10^24 */
+    public static boolean isProbablePrime(BigInteger n) {
+        if (n.compareTo(LONG_LIMIT) < 0)
+            return isProbablePrime(n.longValue());
+        if (!n.testBit(0))
+            return false;
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        int s = nMinusOne.getLowestSetBit();
+        BigInteger d = nMinusOne.shiftRight(s);
+        witness:
+        for (int i = 0; i < 24; i++) {
+            BigInteger x = BIG_SMALL_PRIMES[i].modPow(d, n);
+            if (x.equals(BigInteger.ONE) || x.equals(nMinusOne))
+                continue;
+            for (int r = 1; r < s; r++) {
+                x = x.multiply(x).mod(n);
+                if (x.equals(nMinusOne))
+                    continue witness;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // ---- Pollard-Brent rho ----
+
+    /**
+     * Returns a nontrivial factor of the odd composite n, or n itself if the
+     * polynomial x^2 + c fails to split it.
+     */
+    private static long rho(long n, long c) throws InterruptedException {
+        long negInv = montgomeryNegInverse(n);
+        long one = montgomeryOne(n);
+        long y = one, x = one, ys = one, q = one;
+        long g = 1;
+        for (long r = 1; g == 1; r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++)
+                y = addMod(mulMod(y, y, n, negInv), c, n);
+            for (long k = 0; k < r && g == 1; k += BATCH) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                ys = y;
+                long steps = Math.min(BATCH, r - k);
+                for (long i = 0; i < steps; i++) {
+                    y = addMod(mulMod(y, y, n, negInv), c, n);
+                    q = mulMod(q, x > y ? x - y : y - x, n, negInv);
+                }
+                g = gcd(q, n);
+            }
+        }
+        if (g == n) {
+            // The batch overshot; retrace it one step at a time
+            do {
+                ys = addMod(mulMod(ys, ys, n, negInv), c, n);
+                g = gcd(x > ys ? x - ys : ys - x, n);
+            } while (g == 1);
+        }
+        return g;
+    }
+
+    /** Races rho instances on the pool; returns a nontrivial factor of composite n */
+    private BigInteger findFactor(final BigInteger n) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        if (current instanceof ForkJoinWorkerThread
+                && ((ForkJoinWorkerThread) current).getPool() == pool) {
+            // Blocking a worker on racers queued behind it could starve the pool
+            AtomicBoolean never = new AtomicBoolean();
+            for (long c = 1; ; c++) {
+                BigInteger d = rho(n, BigInteger.valueOf(c), never);
+                if (d != null)
+                    return d;
+            }
+        }
+        for (int attempt = 0; ; attempt++) {
+            final AtomicBoolean stop = new AtomicBoolean();
+            CompletionService<BigInteger> ecs = new ExecutorCompletionService<BigInteger>(pool);
+            List<Future<BigInteger>> futures = new ArrayList<Future<BigInteger>>();
+            try {
+                for (int i = 0; i < racers; i++) {
+                    final BigInteger c = BigInteger.valueOf(attempt * racers + i + 1);
+                    futures.add(ecs.submit(new Callable<BigInteger>() {
+                        public BigInteger call() throws InterruptedException {
+                            return rho(n, c, stop);
+                        }
+                    }));
+                }
+                for (int i = 0; i < racers; i++) {
+                    BigInteger d = ecs.take().get();
+                    if (d != null)
+                        return d;
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedException)
+                    throw (InterruptedException) e.getCause();
+                throw LaunderThrowable.launderThrowable(e.getCause());
+            } finally {
+                // Pool threads do not see our interrupt, so stop them by flag
+                stop.set(true);
+                for (Future<BigInteger> f : futures)
+                    f.cancel(false);
+            }
+        }
+    }
+
+    /** BigInteger rho; returns a nontrivial factor, or null if it fails or is stopped */
+    private static BigInteger rho(BigInteger n, BigInteger c, AtomicBoolean stop)
+            throws InterruptedException {
+        BigInteger y = TWO, x = TWO, ys = TWO, q = BigInteger.ONE;
+        BigInteger g = BigInteger.ONE;
+        for (long r = 1; g.equals(BigInteger.ONE); r <<= 1) {
+            x = y;
+            for (long i = 0; i < r; i++)
+                y = y.multiply(y).add(c).mod(n);
+            for (long k = 0; k < r && g.equals(BigInteger.ONE); k += BATCH) {
+                if (stop.get())
+                    return null;
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                ys = y;
+                long steps = Math.min(BATCH, r - k);
+                for (long i = 0; i < steps; i++) {
+                    y = y.multiply(y).add(c).mod(n);
+                    q = q.multiply(x.subtract(y).abs()).mod(n);
+                }
+                g = q.gcd(n);
+            }
+        }
+        if (g.equals(n)) {
+            do {
+                if (stop.get())
+                    return null;
+                ys = ys.multiply(ys).add(c).mod(n);
+                g = x.subtract(ys).abs().gcd(n);
+            } while (g.equals(BigInteger.ONE));
+        }
+        return g.equals(n) ? null : g;
+    }
+
+    // ---- Montgomery arithmetic modulo an odd n < 2^63, with R = 2^64 ----
+
+    /** Returns -n^-1 mod 2^64 */
+    private static long montgomeryNegInverse(long n) {
+        long inv = n; // correct to 3 bits for odd n; each step doubles that
+        for (int i = 0; i < 5; i++)
+            inv *= 2 - n * inv;
+        return -inv;
+    }
+
+    /** Returns R mod n, the Montgomery form of 1 */
+    private static long montgomeryOne(long n) {
+        long r = Long.remainderUnsigned(-1L, n) + 1;
+        return (r == n) ? 0 : r;
+    }
+
+    /** Returns R^2 mod n, used to convert into Montgomery form */
+    private static long montgomeryR2(long n, long one) {
+        long r2 = one;
+        for (int i = 0; i < 64; i++) {
+            r2 <<= 1;
+            if (Long.compareUnsigned(r2, n) >= 0)
+                r2 -= n;
+        }
+        return r2;
+    }
+
+    /** Returns a * b * R^-1 mod n */
+    private static long mulMod(long a, long b, long n, long negInv) {
+        long lo = a * b;
+        long hi = unsignedMultiplyHigh(a, b);
+        long m = lo * negInv;
+        long t = hi + unsignedMultiplyHigh(m, n) + (lo != 0 ? 1 : 0);
+        return (Long.compareUnsigned(t, n) >= 0) ? t - n : t;
+    }
+
+    private static long montgomeryPow(long base, long e, long one, long n, long negInv) {
+        long result = one;
+        while (e != 0) {
+            if ((e & 1) != 0)
+                result = mulMod(result, base, n, negInv);
+            base = mulMod(base, base, n, negInv);
+            e >>>= 1;
+        }
+        return result;
+    }
+
+    private static long addMod(long a, long b, long n) {
+        long s = a + b;
+        return (Long.compareUnsigned(s, n) >= 0) ? s - n : s;
+    }
+
+    private static long unsignedMultiplyHigh(long x, long y) {
+        long x1 = x >>> 32, x2 = x & 0xffffffffL;
+        long y1 = y >>> 32, y2 = y & 0xffffffffL;
+        long t = x1 * y2 + ((x2 * y2) >>> 32);
+        long z1 = (t & 0xffffffffL) + x2 * y1;
+        return x1 * y1 + (t >>> 32) + (z1 >>> 32);
+    }
+
+    private static long gcd(long a, long b) {
+        if (a == 0)
+            return b;
+        if (b == 0)
+            return a;
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        do {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = b;
+                b = a;
+                a = t;
+            }
+            b -= a;
+        } while (b != 0);
+        return a << shift;
+    }
+
+    private static BigInteger[] toBigIntegers(long[] factors) {
+        BigInteger[] result = new BigInteger[factors.length];
+        for (int i = 0; i < factors.length; i++)
+            result[i] = BigInteger.valueOf(factors[i]);
+        return result;
+    }
+
+    private static int[] sieve(int limit) {
+        boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j < limit; j += i)
+                    composite[(int) j] = true;
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, k = 0; i < limit; i++)
+            if (!composite[i])
+                primes[k++] = i;
+        return primes;
+    }
+}
@@ -1,6 +1,8 @@
 package net.jcip.examples;
 
+import java.io.*;
 import java.math.BigInteger;
+import java.util.*;
 import javax.servlet.*;
 
 import net.jcip.annotations.*;
@@ -14,25 +16,72 @@ import net.jcip.annotations.*;
  */
 @ThreadSafe
 public class Factorizer extends GenericServlet implements Servlet {
+    private static final FactorizationEngine engine = new FactorizationEngine();
     private final Computable<BigInteger, BigInteger[]> c =
             new Computable<BigInteger, BigInteger[]>() {
-                public BigInteger[] compute(BigInteger arg) {
+                public BigInteger[] compute(BigInteger arg) throws InterruptedException {
                     return factor(arg);
                 }
             };
-    private final Computable<BigInteger, BigInteger[]> cache
-            = new Memoizer<BigInteger, BigInteger[]>(c);
+    private final BulkComputable<BigInteger, BigInteger[]> bulk =
+            new BulkComputable<BigInteger, BigInteger[]>() {
+                public Map<BigInteger, BigInteger[]> computeAll(Collection<? extends BigInteger> args)
+                        throws InterruptedException {
+                    return factorAll(args);
+                }
+            };
+    private final Memoizer<BigInteger, BigInteger[]> cache
+            = new Memoizer<BigInteger, BigInteger[]>(c, bulk);
+
+    // Restores the cache saved by the previous instance, if configured
+    public void init() throws ServletException {
+        File snapshot = snapshotFile();
+        if (snapshot == null || !snapshot.exists())
+            return;
+        try {
+            int n = MemoizerSnapshot.restore(cache, snapshot,
+                    MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY);
+            log("restored " + n + " cached factorizations from " + snapshot);
+        } catch (IOException e) {
+            log("could not restore " + snapshot + ", starting cold", e);
+        }
+    }
+
+    public void destroy() {
+        File snapshot = snapshotFile();
+        if (snapshot == null)
+            return;
+        try {
+            MemoizerSnapshot.write(cache, snapshot,
+                    MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY);
+        } catch (IOException e) {
+            log("could not save " + snapshot, e);
+        }
+    }
+
+    private File snapshotFile() {
+        String path = getInitParameter("snapshotFile");
+        return (path == null) ? null : new File(path);
+    }
 
     public void service(ServletRequest req,
                         ServletResponse resp) {
         try {
             BigInteger i = extractFromRequest(req);
             encodeIntoResponse(resp, cache.compute(i));
+        } catch (IllegalArgumentException e) {
+            encodeError(resp, "too large to factor");
         } catch (InterruptedException e) {
             encodeError(resp, "factorization interrupted");
         }
     }
 
+    // Batch form of service(), for requests carrying many numbers
+    Map<BigInteger, BigInteger[]> factorBatch(Collection<BigInteger> numbers)
+            throws InterruptedException {
+        return cache.computeAll(numbers);
+    }
+
     void encodeIntoResponse(ServletResponse resp, BigInteger[] factors) {
     }
 
@@ -43,8 +92,15 @@ public class Factorizer extends GenericServlet implements Servlet {
         return new BigInteger("7");
     }
 
-    BigInteger[] factor(BigInteger i) {
-        // Doesn't really factor
-        return new BigInteger[]{i};
+    BigInteger[] factor(BigInteger i) throws InterruptedException {
+        return engine.factor(i);
+    }
+
+    Map<BigInteger, BigInteger[]> factorAll(Collection<? extends BigInteger> numbers)
+            throws InterruptedException {
+        Map<BigInteger, BigInteger[]> result = new HashMap<BigInteger, BigInteger[]>();
+        for (BigInteger i : numbers)
+            result.put(i, factor(i));
+        return result;
     }
 }
@@ -0,0 +1,34 @@
+package net.jcip.examples;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.*;
+
+/**
+ * FailureBackoff
+ * <p/>
+ * How long a memoizer keeps serving a failed computation before retrying it
+ * <p/>
+ * The first failure is cached for the initial backoff; each consecutive
+ * failure of the same argument doubles that, up to the maximum backoff.
+ */
+@Immutable
+public final class FailureBackoff {
+    private final long initialNanos;
+    private final long maxNanos;
+
+    public FailureBackoff(long initialBackoff, long maxBackoff, TimeUnit unit) {
+        if (initialBackoff <= 0 || maxBackoff < initialBackoff)
+            throw new IllegalArgumentException();
+        this.initialNanos = unit.toNanos(initialBackoff);
+        this.maxNanos = unit.toNanos(maxBackoff);
+    }
+
+    /** Returns the time to cache the given consecutive failure, counting from 1 */
+    long delayNanos(int failures) {
+        int doublings = failures - 1;
+        if (doublings >= Long.numberOfLeadingZeros(initialNanos)) // would shift into the sign bit
+            return maxNanos;
+        return Math.min(initialNanos << doublings, maxNanos);
+    }
+}
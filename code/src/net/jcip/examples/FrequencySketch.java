@@ -0,0 +1,110 @@
+package net.jcip.examples;
+
+import net.jcip.annotations.*;
+
+/**
+ * FrequencySketch
+ * <p/>
+ * Probabilistic popularity estimate used for TinyLFU admission
+ * <p/>
+ * A count-min sketch with four hash functions and 4-bit counters, sixteen
+ * counters packed into each long. Each hash function picks its own long, so
+ * an update touches up to four words; within them, the item's hash picks
+ * which group of four counters it uses, the i-th function taking the i-th
+ * counter of the group. When the number of increments reaches the sample
+ * size every counter is halved, so that the history ages and the sketch
+ * follows shifts in popularity.
+ */
+@NotThreadSafe
+class FrequencySketch <E> {
+    private static final long[] SEED = { // a mixture of seeds from FNV-1a, CityHash, and Murmur3
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAXIMUM_CAPACITY = 1 << 24;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    public FrequencySketch(long expectedSize) {
+        ensureCapacity(expectedSize);
+    }
+
+    /**
+     * Grows the table so that it can estimate the frequencies of
+     * maximumSize distinct items; the existing history is discarded.
+     */
+    public void ensureCapacity(long maximumSize) {
+        int maximum = (int) Math.min(Math.max(maximumSize, 16), MAXIMUM_CAPACITY);
+        if (table != null && table.length >= maximum)
+            return;
+        table = new long[ceilingPowerOfTwo(maximum)];
+        tableMask = table.length - 1;
+        sampleSize = 10 * maximum;
+        size = 0;
+    }
+
+    /** Returns the estimated number of occurrences of e, at most 15 */
+    public int frequency(E e) {
+        int hash = spread(e.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /** Increments the popularity of e if it is not already at the maximum */
+    public void increment(E e) {
+        int hash = spread(e.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            added |= incrementAt(index, start + i);
+        }
+        if (added && ++size == sampleSize)
+            reset();
+    }
+
+    private boolean incrementAt(int i, int j) {
+        int offset = j << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** Halves every counter, adjusting for the truncation of odd counts */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEED[i]) * SEED[i];
+        hash += hash >>> 32;
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << -Integer.numberOfLeadingZeros(x - 1);
+    }
+}
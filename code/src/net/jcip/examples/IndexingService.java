@@ -1,7 +1,8 @@
 package net.jcip.examples;
 
-import java.io.File;
-import java.io.FileFilter;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
 import java.util.concurrent.*;
 
 /**
@@ -14,15 +15,65 @@ import java.util.concurrent.*;
 public class IndexingService {
     private static final int CAPACITY = 1000;
     private static final File POISON = new File("");
+    // Decodes the empty path back to POISON itself, so that the pill survives a restart
+    private static final EntryCodec<File> FILES = new EntryCodec<File>() {
+        public void encode(File value, DataOutput out) throws IOException {
+            PersistentBoundedQueue.STRING.encode(value.getPath(), out);
+        }
+
+        public File decode(ByteBuffer in) {
+            String path = PersistentBoundedQueue.STRING.decode(in);
+            return path.isEmpty() ? POISON : new File(path);
+        }
+    };
     private final IndexerThread consumer = new IndexerThread();
     private final CrawlerThread producer = new CrawlerThread();
     private final BlockingQueue<File> queue;
     private final FileFilter fileFilter;
     private final File root;
+    private volatile boolean crawled;
+    // What a persistent queue recovered from an earlier run: whether that
+    // run's crawl had finished, and the files it left queued
+    private final boolean recoveredCrawl;
+    private final Set<File> recovered = new HashSet<File>();
 
     public IndexingService(File root, final FileFilter fileFilter) {
+        this(root, fileFilter, false);
+    }
+
+    /**
+     * With spsc, the crawler hands files to the indexer through a
+     * SpscBoundedQueue, as it is their only producer and consumer.
+     */
+    public IndexingService(File root, final FileFilter fileFilter, boolean spsc) {
+        this(root, fileFilter, spsc
+                ? new SpscBoundedQueue<File>(CAPACITY)
+                : new LinkedBlockingQueue<File>(CAPACITY));
+    }
+
+    /**
+     * Keeps the files waiting to be indexed in a PersistentBoundedQueue in
+     * queueDir, so that after a crash the indexer picks up where it left
+     * off. If the crash came after the crawl had finished, the recovered
+     * backlog is all there is to index and the tree is not crawled again;
+     * otherwise the tree is crawled again, skipping the files still queued,
+     * and files indexed before the crash are indexed a second time.
+     */
+    public IndexingService(File root, final FileFilter fileFilter, File queueDir) throws IOException {
+        this(root, fileFilter, new PersistentBoundedQueue<File>(queueDir, CAPACITY, FILES));
+    }
+
+    private IndexingService(File root, final FileFilter fileFilter, BlockingQueue<File> queue) {
         this.root = root;
-        this.queue = new LinkedBlockingQueue<File>(CAPACITY);
+        this.queue = queue;
+        boolean poisoned = false;
+        for (File f : queue) {
+            if (f == POISON)
+                poisoned = true;
+            else
+                recovered.add(f);
+        }
+        this.recoveredCrawl = poisoned;
         this.fileFilter = new FileFilter() {
             public boolean accept(File f) {
                 return f.isDirectory() || fileFilter.accept(f);
@@ -30,16 +81,19 @@ public class IndexingService {
         };
     }
 
+    // A file still queued from before a restart will be reached by the indexer
     private boolean alreadyIndexed(File f) {
-        return false;
+        return recovered.contains(f);
     }
 
     class CrawlerThread extends Thread {
         public void run() {
             try {
-                crawl(root);
+                if (!recoveredCrawl)
+                    crawl(root);
             } catch (InterruptedException e) { /* fall through */
             } finally {
+                crawled = true;
                 while (true) {
                     try {
                         queue.put(POISON);
@@ -68,12 +122,22 @@ public class IndexingService {
             try {
                 while (true) {
                     File file = queue.take();
-                    if (file == POISON)
-                        break;
-                    else
+                    if (file == POISON) {
+                        // A persistent queue may still hold the pill from
+                        // a run that crashed before the indexer reached it
+                        if (crawled && queue.isEmpty())
+                            break;
+                    } else
                         indexFile(file);
                 }
             } catch (InterruptedException consumed) {
+            } finally {
+                if (queue instanceof Closeable) {
+                    try {
+                        ((Closeable) queue).close();
+                    } catch (IOException ignored) {
+                    }
+                }
             }
         }
 
@@ -1,5 +1,6 @@
 package net.jcip.examples;
 
+import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.*;
 
@@ -9,23 +10,44 @@ import net.jcip.annotations.*;
  * LinkedQueue
  * <p/>
  * Insertion in the Michael-Scott nonblocking queue algorithm
+ * <p/>
+ * Completed as a Queue: poll swings head past the dummy node with a CAS,
+ * first helping a lagging tail along so that head never passes it, and the
+ * old dummy is then linked to itself so that it holds no garbage reachable.
+ * A node's next field is updated through a field updater rather than an
+ * AtomicReference of its own, so each item costs one allocation.
+ * <p/>
+ * With relaxedTail, offer appends after whatever node it finds at the end
+ * and only swings tail when it had to walk past a lagging one, which
+ * halves the CASes on tail at the cost of one more hop; put keeps the
+ * original algorithm. size is an estimate kept in a LongAdder. The iterator
+ * is weakly consistent: it never throws ConcurrentModificationException,
+ * returns each item at most once, and does not support removal.
  *
  * @author Brian Goetz and Tim Peierls
  */
 @ThreadSafe
-public class LinkedQueue <E> {
+public class LinkedQueue <E> extends AbstractQueue<E> {
 
     private static class Node <E> {
-        final E item;
+        E item; // cleared once dequeued
         //下一个节点
-        final AtomicReference<Node<E>> next;
+        volatile Node<E> next;
 
         public Node(E item, Node<E> next) {
             this.item = item;
-            this.next = new AtomicReference<Node<E>>(next);
+            this.next = next;
+        }
+
+        boolean casNext(Node<E> expect, Node<E> update) {
+            return NEXT.compareAndSet(this, expect, update);
         }
     }
 
+    @SuppressWarnings("rawtypes") // the updater is made from Node.class, which has no type argument
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT
+            = AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
     //哑结点 也是头结点
     private final Node<E> dummy = new Node<E>(null, null);
     private final AtomicReference<Node<E>> head
@@ -33,12 +55,24 @@ public class LinkedQueue <E> {
     //尾部节点
     private final AtomicReference<Node<E>> tail
             = new AtomicReference<Node<E>>(dummy);
+    private final LongAdder count = new LongAdder();
+    private final boolean relaxedTail;
+
+    public LinkedQueue() {
+        this(false);
+    }
+
+    public LinkedQueue(boolean relaxedTail) {
+        this.relaxedTail = relaxedTail;
+    }
 
     public boolean put(E item) {
+        if (item == null)
+            throw new NullPointerException();
         Node<E> newNode = new Node<E>(item, null);
         while (true) {
             Node<E> curTail = tail.get();
-            Node<E> tailNext = curTail.next.get();
+            Node<E> tailNext = curTail.next;
             //得到尾部节点
             if (curTail == tail.get()) {
                 // 1. 尾部节点的后续节点不为空，则队列处于不一致的状态
@@ -48,13 +82,140 @@ public class LinkedQueue <E> {
                     // 更新操作失败，再次尝试
                 } else {
                     // 3. 尾部节点的后续节点为空，则队列处于一致的状态，尝试更新
-                    if (curTail.next.compareAndSet(null, newNode)) {
+                    if (curTail.casNext(null, newNode)) {
                         // 4. 更新成功，将为尾部节点向后退进；
                         tail.compareAndSet(curTail, newNode);
+                        count.increment();
                         return true;
                     }
                 }
             }
         }
     }
+
+    public boolean offer(E item) {
+        return relaxedTail ? append(item) : put(item);
+    }
+
+    /** Appends without swinging tail unless it was already a node behind */
+    private boolean append(E item) {
+        if (item == null)
+            throw new NullPointerException();
+        Node<E> newNode = new Node<E>(item, null);
+        Node<E> t = tail.get();
+        Node<E> p = t;
+        while (true) {
+            Node<E> next = p.next;
+            if (next == null) {
+                if (p.casNext(null, newNode)) {
+                    if (p != t)
+                        tail.compareAndSet(t, newNode);
+                    count.increment();
+                    return true;
+                }
+            } else if (next == p) {
+                // p was dequeued while we walked; tail is never behind head
+                t = tail.get();
+                p = t;
+            } else {
+                p = next;
+            }
+        }
+    }
+
+    public E poll() {
+        while (true) {
+            Node<E> h = head.get();
+            Node<E> t = tail.get();
+            Node<E> first = h.next;
+            if (h == head.get()) {
+                if (h == t) {
+                    if (first == null)
+                        return null;
+                    // Tail is lagging; help it along before moving head
+                    tail.compareAndSet(t, first);
+                } else {
+                    E item = first.item;
+                    if (head.compareAndSet(h, first)) {
+                        first.item = null; // first is the new dummy
+                        NEXT.lazySet(h, h);
+                        count.decrement();
+                        return item;
+                    }
+                }
+            }
+        }
+    }
+
+    public E peek() {
+        while (true) {
+            Node<E> h = head.get();
+            Node<E> first = h.next;
+            if (first == null || first == h) {
+                if (h == head.get())
+                    return null;
+                continue;
+            }
+            E item = first.item;
+            if (h == head.get()) // so first had not been dequeued when item was read
+                return item;
+        }
+    }
+
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /** Returns an estimate of the number of items, exact only when the queue is quiescent */
+    public int size() {
+        long n = count.sum();
+        return (int) Math.max(0, Math.min(n, Integer.MAX_VALUE));
+    }
+
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    /** Returns the node after p, or the first live node if p has been dequeued */
+    private Node<E> successor(Node<E> p) {
+        Node<E> next = p.next;
+        return (next == p) ? head.get().next : next;
+    }
+
+    private class Itr implements Iterator<E> {
+        // The next item is read ahead, so that hasNext and next agree
+        private Node<E> nextNode;
+        private E nextItem;
+
+        Itr() {
+            advance(head.get());
+        }
+
+        private void advance(Node<E> from) {
+            Node<E> p = successor(from);
+            while (p != null) {
+                E item = p.item;
+                if (item != null) {
+                    nextNode = p;
+                    nextItem = item;
+                    return;
+                }
+                p = successor(p);
+            }
+            nextNode = null;
+            nextItem = null;
+        }
+
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        public E next() {
+            if (nextNode == null)
+                throw new NoSuchElementException();
+            E item = nextItem;
+            advance(nextNode);
+            return item;
+        }
+    }
 }
@@ -0,0 +1,255 @@
+package net.jcip.examples;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.*;
+import java.util.function.BooleanSupplier;
+
+import net.jcip.annotations.*;
+
+/**
+ * LockFreeBoundedBuffer
+ * <p/>
+ * Multi-producer, multi-consumer bounded buffer using per-slot sequence numbers
+ * <p/>
+ * Every slot carries a sequence number telling which lap of the ring it is
+ * ready for, and whether for a put or a take. A producer at position p may
+ * fill slot p % capacity once the slot's sequence is 2p; it claims the
+ * position with a CAS on putPosition, stores the item and publishes it by
+ * setting the sequence to 2p + 1. A consumer at position p waits for
+ * sequence 2p + 1, claims the position with a CAS on takePosition, removes
+ * the item and releases the slot for the next lap by setting the sequence
+ * to 2(p + capacity). (Doubling keeps "filled at p" and "free for p + 1"
+ * apart even when the capacity is 1.) Producers and consumers thus contend
+ * only among themselves, each on its own counter, and never hold anything
+ * that could block the others.
+ * <p/>
+ * A batch claims a run of consecutive positions with a single CAS, after
+ * checking that each of their slots is ready.
+ * <p/>
+ * offer and poll fail immediately on a full or empty buffer; put and take
+ * retry as the buffer's WaitStrategy dictates, by default spinning briefly,
+ * then yielding, then parking for increasing intervals.
+ */
+@ThreadSafe
+public class LockFreeBoundedBuffer <E> implements BlockingBuffer<E> {
+    private final int capacity;
+    private final Object[] items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong putPosition = new PaddedAtomicLong();
+    private final AtomicLong takePosition = new PaddedAtomicLong();
+    private final WaitStrategy waitStrategy;
+    private final BooleanSupplier notFull = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isFull();
+        }
+    };
+    private final BooleanSupplier notEmpty = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isEmpty();
+        }
+    };
+
+    public LockFreeBoundedBuffer(int capacity) {
+        this(capacity, WaitStrategy.spinPark());
+    }
+
+    public LockFreeBoundedBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+        this.items = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, 2L * i);
+    }
+
+    public boolean offer(E x) {
+        if (x == null)
+            throw new NullPointerException();
+        long pos = putPosition.get();
+        while (true) {
+            int i = index(pos);
+            long dif = sequences.get(i) - 2 * pos;
+            if (dif == 0) {
+                if (putPosition.compareAndSet(pos, pos + 1)) {
+                    items[i] = x;
+                    sequences.lazySet(i, 2 * pos + 1);
+                    waitStrategy.signalAll();
+                    return true;
+                }
+                pos = putPosition.get();
+            } else if (dif < 0)
+                return false; // the slot still holds the item of the previous lap
+            else
+                pos = putPosition.get(); // another producer got here first
+        }
+    }
+
+    public E poll() {
+        long pos = takePosition.get();
+        while (true) {
+            int i = index(pos);
+            long dif = sequences.get(i) - (2 * pos + 1);
+            if (dif == 0) {
+                if (takePosition.compareAndSet(pos, pos + 1)) {
+                    @SuppressWarnings("unchecked") E x = (E) items[i];
+                    items[i] = null;
+                    sequences.lazySet(i, 2 * (pos + capacity));
+                    waitStrategy.signalAll();
+                    return x;
+                }
+                pos = takePosition.get();
+            } else if (dif < 0)
+                return null; // the slot has not been filled for this lap
+            else
+                pos = takePosition.get();
+        }
+    }
+
+    public void put(E x) throws InterruptedException {
+        for (int round = 0; !offer(x); round++)
+            waitStrategy.await(round, notFull);
+    }
+
+    public E take() throws InterruptedException {
+        E x;
+        for (int round = 0; (x = poll()) == null; round++)
+            waitStrategy.await(round, notEmpty);
+        return x;
+    }
+
+    /**
+     * Puts as many of src as there is room for, claiming their slots with a
+     * single CAS, and returns how many
+     */
+    public int offerAll(E[] src, int off, int len) {
+        for (int i = 0; i < len; i++)
+            if (src[off + i] == null)
+                throw new NullPointerException();
+        if (len == 0)
+            return 0;
+        int max = Math.min(len, capacity);
+        while (true) {
+            long pos = putPosition.get();
+            int n = 0;
+            while (n < max && sequences.get(index(pos + n)) == 2 * (pos + n))
+                n++;
+            if (n == 0 && sequences.get(index(pos)) - 2 * pos < 0)
+                return 0;
+            if (n > 0 && putPosition.compareAndSet(pos, pos + n)) {
+                for (int j = 0; j < n; j++) {
+                    int i = index(pos + j);
+                    items[i] = src[off + j];
+                    sequences.lazySet(i, 2 * (pos + j) + 1);
+                }
+                waitStrategy.signalAll();
+                return n;
+            }
+        }
+    }
+
+    public void putAll(E[] src, int off, int len) throws InterruptedException {
+        int round = 0;
+        while (len > 0) {
+            int n = offerAll(src, off, len);
+            if (n == 0)
+                waitStrategy.await(round++, notFull);
+            else {
+                off += n;
+                len -= n;
+                round = 0;
+            }
+        }
+    }
+
+    public int takeBatch(E[] dst) throws InterruptedException {
+        if (dst.length == 0)
+            return 0;
+        int n;
+        for (int round = 0; (n = pollAll(dst, null, dst.length)) == 0; round++)
+            waitStrategy.await(round, notEmpty);
+        return n;
+    }
+
+    public int drainTo(Collection<? super E> c, int max) {
+        return pollAll(null, c, max);
+    }
+
+    /**
+     * Takes as many items as there are, up to max, claiming their slots with
+     * a single CAS, into dst or else c. If c throws, the rest of the claimed
+     * items are lost.
+     */
+    private int pollAll(E[] dst, Collection<? super E> c, int max) {
+        if (max <= 0)
+            return 0;
+        max = Math.min(max, capacity);
+        while (true) {
+            long pos = takePosition.get();
+            int n = 0;
+            while (n < max && sequences.get(index(pos + n)) == 2 * (pos + n) + 1)
+                n++;
+            if (n == 0 && sequences.get(index(pos)) - (2 * pos + 1) < 0)
+                return 0;
+            if (n > 0 && takePosition.compareAndSet(pos, pos + n)) {
+                int j = 0;
+                try {
+                    for (; j < n; j++) {
+                        E x = release(pos + j);
+                        if (dst != null)
+                            dst[j] = x;
+                        else
+                            c.add(x);
+                    }
+                } finally {
+                    // The claimed slots must be released whatever happens
+                    for (j++; j < n; j++)
+                        release(pos + j);
+                    waitStrategy.signalAll();
+                }
+                return n;
+            }
+        }
+    }
+
+    private E release(long pos) {
+        int i = index(pos);
+        @SuppressWarnings("unchecked") E x = (E) items[i];
+        items[i] = null;
+        sequences.lazySet(i, 2 * (pos + capacity));
+        return x;
+    }
+
+    /** Returns the number of items; only an estimate while others are active */
+    public int size() {
+        while (true) {
+            long take = takePosition.get();
+            long put = putPosition.get();
+            if (take == takePosition.get())
+                return (int) Math.max(0, Math.min(put - take, capacity));
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private int index(long pos) {
+        return (int) (pos % capacity);
+    }
+
+    /** Keeps the two position counters on separate cache lines */
+    private static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -1,7 +1,6 @@
 package net.jcip.examples;
 
-import java.io.PrintWriter;
-import java.io.Writer;
+import java.io.*;
 import java.util.concurrent.*;
 
 import net.jcip.annotations.*;
@@ -22,7 +21,17 @@ public class LogService {
     @GuardedBy("this") private int reservations;
 
     public LogService(Writer writer) {
-        this.queue = new LinkedBlockingQueue<String>();
+        this(writer, new LinkedBlockingQueue<String>());
+    }
+
+    /**
+     * Logs through the given queue, which may already hold messages, such as
+     * those a PersistentBoundedQueue kept from before a crash. A queue that
+     * is Closeable is closed when the logger thread finishes.
+     */
+    public LogService(Writer writer, BlockingQueue<String> queue) {
+        this.queue = queue;
+        this.reservations = queue.size();
         this.loggerThread = new LoggerThread();
         this.writer = new PrintWriter(writer);
     }
@@ -73,6 +82,12 @@ public class LogService {
                 }
             } finally {
                 writer.close();
+                if (queue instanceof Closeable) {
+                    try {
+                        ((Closeable) queue).close();
+                    } catch (IOException ignored) {
+                    }
+                }
             }
         }
     }
@@ -20,7 +20,25 @@ public class LogWriter {
     private static final int CAPACITY = 1000;
 
     public LogWriter(Writer writer) {
-        this.queue = new LinkedBlockingQueue<String>(CAPACITY);
+        this(writer, false);
+    }
+
+    /**
+     * With singleProducer, log may only ever be called from one thread, and
+     * the queue to the logger thread is a SpscBoundedQueue.
+     */
+    public LogWriter(Writer writer, boolean singleProducer) {
+        this(writer, singleProducer
+                ? new SpscBoundedQueue<String>(CAPACITY)
+                : new LinkedBlockingQueue<String>(CAPACITY));
+    }
+
+    /**
+     * Logs through the given queue; with a PersistentBoundedQueue, messages
+     * not yet written when the process dies are written after a restart.
+     */
+    public LogWriter(Writer writer, BlockingQueue<String> queue) {
+        this.queue = queue;
         this.logger = new LoggerThread(writer);
     }
 
@@ -0,0 +1,135 @@
+package net.jcip.examples;
+
+import java.util.concurrent.atomic.*;
+import java.util.function.BooleanSupplier;
+
+import net.jcip.annotations.*;
+
+/**
+ * LongBoundedBuffer
+ * <p/>
+ * Bounded buffer of long values, without boxing
+ * <p/>
+ * Uses the same per-slot sequence numbers as LockFreeBoundedBuffer, with
+ * the values in a long[], so that neither putting nor taking allocates.
+ * The default wait strategy does not allocate either.
+ */
+@ThreadSafe
+public class LongBoundedBuffer {
+    private final int capacity;
+    private final long[] items;
+    private final AtomicLongArray sequences;
+    private final AtomicLong putPosition = new PaddedAtomicLong();
+    private final AtomicLong takePosition = new PaddedAtomicLong();
+    private final WaitStrategy waitStrategy;
+    private final BooleanSupplier notFull = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isFull();
+        }
+    };
+    private final BooleanSupplier notEmpty = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isEmpty();
+        }
+    };
+
+    public LongBoundedBuffer(int capacity) {
+        this(capacity, WaitStrategy.spinPark());
+    }
+
+    public LongBoundedBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+        this.items = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            sequences.set(i, 2L * i);
+    }
+
+    public boolean offerLong(long x) {
+        long pos = putPosition.get();
+        while (true) {
+            int i = index(pos);
+            long dif = sequences.get(i) - 2 * pos;
+            if (dif == 0) {
+                if (putPosition.compareAndSet(pos, pos + 1)) {
+                    items[i] = x;
+                    sequences.lazySet(i, 2 * pos + 1);
+                    waitStrategy.signalAll();
+                    return true;
+                }
+                pos = putPosition.get();
+            } else if (dif < 0)
+                return false;
+            else
+                pos = putPosition.get();
+        }
+    }
+
+    // BLOCKS-UNTIL: not-full
+    public void putLong(long x) throws InterruptedException {
+        for (int round = 0; !offerLong(x); round++)
+            waitStrategy.await(round, notFull);
+    }
+
+    // BLOCKS-UNTIL: not-empty
+    public long takeLong() throws InterruptedException {
+        long pos;
+        for (int round = 0; (pos = claimTake()) < 0; round++)
+            waitStrategy.await(round, notEmpty);
+        int i = index(pos);
+        long x = items[i];
+        sequences.lazySet(i, 2 * (pos + capacity));
+        waitStrategy.signalAll();
+        return x;
+    }
+
+    /**
+     * Claims the next position to take from, or returns -1 if its slot has
+     * not been filled yet, which a producer may be about to do
+     */
+    private long claimTake() {
+        long pos = takePosition.get();
+        while (true) {
+            long dif = sequences.get(index(pos)) - (2 * pos + 1);
+            if (dif == 0) {
+                if (takePosition.compareAndSet(pos, pos + 1))
+                    return pos;
+                pos = takePosition.get();
+            } else if (dif < 0)
+                return -1;
+            else
+                pos = takePosition.get();
+        }
+    }
+
+    /** Returns the number of values; only an estimate while others are active */
+    public int size() {
+        while (true) {
+            long take = takePosition.get();
+            long put = putPosition.get();
+            if (take == takePosition.get())
+                return (int) Math.max(0, Math.min(put - take, capacity));
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    private int index(long pos) {
+        return (int) (pos % capacity);
+    }
+
+    /** Keeps the two position counters on separate cache lines */
+    private static final class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -1,6 +1,9 @@
 package net.jcip.examples;
 
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 
 /**
  * Memoizer
@@ -13,15 +16,48 @@ public class Memoizer <A, V> implements Computable<A, V> {
     private final ConcurrentMap<A, Future<V>> cache
             = new ConcurrentHashMap<>();
     private final Computable<A, V> c;
+    private final BulkComputable<A, V> bulk;
+    private final FailureBackoff backoff;
+    private final StatsCounter stats = new StatsCounter();
 
     public Memoizer(Computable<A, V> c) {
-        this.c = c;
+        this(c, null);
+    }
+
+    /**
+     * Creates a memoizer whose computeAll hands all of its misses to bulk in a
+     * single call; without a bulk computation they are computed one by one.
+     */
+    public Memoizer(Computable<A, V> c, BulkComputable<A, V> bulk) {
+        this(c, bulk, null);
+    }
+
+    /**
+     * Creates a memoizer that caches a failed computation only for the delay
+     * given by backoff. Until then callers get the cached failure; once it is
+     * due, a single caller recomputes it while the others keep getting the
+     * failure. Without a backoff, failures are cached for good. Either way,
+     * a computation that was interrupted is not cached at all.
+     */
+    public Memoizer(Computable<A, V> c, BulkComputable<A, V> bulk,
+                    FailureBackoff backoff) {
+        this.c = stats.instrument(c);
+        this.bulk = (bulk == null) ? null : stats.instrumentBulk(bulk);
+        this.backoff = backoff;
     }
 
     public V compute(final A arg) throws InterruptedException {
         while (true) {
+            boolean computed = false;
             Future<V> f = cache.get(arg);
-            if (f == null) {
+            if (f instanceof Failure) {
+                Failure<V> failed = (Failure<V>) f;
+                if (failed.claimRetry()) {
+                    stats.recordMisses(1);
+                    return retry(arg, failed);
+                }
+                stats.recordHits(1);
+            } else if (f == null) {
                 Callable<V> eval = new Callable<V>() {
                     public V call() throws InterruptedException {
                         return c.compute(arg);
@@ -32,16 +68,270 @@ public class Memoizer <A, V> implements Computable<A, V> {
                 f = cache.putIfAbsent(arg, ft);
                 if (f == null) {
                     f = ft;
+                    stats.recordMisses(1);
                     ft.run();
-                }
-            }
+                    computed = true;
+                } else
+                    stats.recordHits(1);
+            } else
+                stats.recordHits(1);
             try {
                 return f.get();
             } catch (CancellationException e) {
                 cache.remove(arg, f);
             } catch (ExecutionException e) {
+                if (e.getCause() instanceof InterruptedException) {
+                    // The computing thread was interrupted; that is not cached,
+                    // and only that thread has been interrupted
+                    cache.remove(arg, f);
+                    if (computed)
+                        throw (InterruptedException) e.getCause();
+                    continue;
+                }
+                if (computed)
+                    recordFailure(arg, f, 1, e.getCause());
                 throw LaunderThrowable.launderThrowable(e.getCause());
             }
         }
     }
-}
\ No newline at end of file
+
+    private V retry(A arg, Failure<V> failed) throws InterruptedException {
+        V value;
+        try {
+            value = c.compute(arg);
+        } catch (InterruptedException e) {
+            failed.releaseRetry();
+            throw e;
+        } catch (Throwable t) {
+            recordFailure(arg, failed, failed.failures + 1, t);
+            throw LaunderThrowable.launderThrowable(t);
+        }
+        cache.replace(arg, failed, CompletableFuture.completedFuture(value));
+        return value;
+    }
+
+    /** Replaces current, the entry whose computation failed, by a cached failure */
+    private void recordFailure(A arg, Future<V> current, int failures, Throwable cause) {
+        if (cause instanceof InterruptedException) {
+            // Not the computation's fault; let the next caller start over
+            cache.remove(arg, current);
+            return;
+        }
+        if (backoff == null)
+            return;
+        long retryAt = System.nanoTime() + backoff.delayNanos(failures);
+        cache.replace(arg, current, new Failure<V>(cause, failures, retryAt));
+    }
+
+    /**
+     * Passes every successfully completed entry to action; in-flight and
+     * failed computations are skipped. Concurrent compute calls are not
+     * blocked, and may or may not be seen.
+     */
+    void forEachCompleted(BiConsumer<? super A, ? super V> action) {
+        for (Map.Entry<A, Future<V>> e : cache.entrySet()) {
+            Future<V> f = e.getValue();
+            if (!f.isDone() || f.isCancelled())
+                continue;
+            V value;
+            try {
+                value = f.get();
+            } catch (CancellationException | ExecutionException | InterruptedException ex) {
+                continue; // cannot block: f is done; a restored value may turn out corrupt
+            }
+            action.accept(e.getKey(), value);
+        }
+    }
+
+    /** Installs a completed future for arg unless it already has an entry */
+    boolean preload(A arg, Future<V> f) {
+        return cache.putIfAbsent(arg, f) == null;
+    }
+
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Returns the results for all of args, in iteration order.
+     * <p/>
+     * A single pass claims a future for every argument that has none; the
+     * claimed arguments are then computed together on the calling thread,
+     * while arguments that other threads are already computing are simply
+     * waited for.
+     */
+    public Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException {
+        Map<A, Future<V>> futures = new LinkedHashMap<>();
+        Map<A, CompletableFuture<V>> misses = new LinkedHashMap<>();
+        Map<A, Failure<V>> retries = new HashMap<>();
+        for (A arg : args) {
+            if (futures.containsKey(arg))
+                continue;
+            Future<V> f = cache.get(arg);
+            if (f instanceof Failure && ((Failure<V>) f).claimRetry()) {
+                // Retried outside the map, so that others still get the failure
+                CompletableFuture<V> retry = new CompletableFuture<>();
+                retries.put(arg, (Failure<V>) f);
+                misses.put(arg, retry);
+                f = retry;
+            } else if (f == null) {
+                CompletableFuture<V> placeholder = new CompletableFuture<>();
+                f = cache.putIfAbsent(arg, placeholder);
+                if (f == null) {
+                    f = placeholder;
+                    misses.put(arg, placeholder);
+                }
+            }
+            futures.put(arg, f);
+        }
+        stats.recordHits(futures.size() - misses.size());
+        stats.recordMisses(misses.size());
+        if (!misses.isEmpty()) {
+            try {
+                computeMisses(misses);
+            } finally {
+                settle(misses, retries);
+            }
+        }
+
+        Map<A, V> result = new LinkedHashMap<>();
+        for (Map.Entry<A, Future<V>> e : futures.entrySet()) {
+            try {
+                result.put(e.getKey(), e.getValue().get());
+            } catch (CancellationException ce) {
+                cache.remove(e.getKey(), e.getValue());
+                result.put(e.getKey(), compute(e.getKey()));
+            } catch (ExecutionException ee) {
+                if (!(ee.getCause() instanceof InterruptedException))
+                    throw LaunderThrowable.launderThrowable(ee.getCause());
+                cache.remove(e.getKey(), e.getValue()); // another thread's computation was interrupted
+                result.put(e.getKey(), compute(e.getKey()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Completes the future of every miss. A bulk computation that fails as a
+     * whole says nothing about which arguments were at fault, so the misses
+     * are then computed one by one, each getting its own result or failure.
+     */
+    private void computeMisses(Map<A, CompletableFuture<V>> misses)
+            throws InterruptedException {
+        if (bulk == null) {
+            computeEach(misses);
+            return;
+        }
+        Map<A, V> values;
+        try {
+            values = bulk.computeAll(Collections.unmodifiableSet(misses.keySet()));
+        } catch (InterruptedException e) {
+            cancelPending(misses);
+            throw e;
+        } catch (Throwable t) {
+            computeEach(misses);
+            return;
+        }
+        for (Map.Entry<A, CompletableFuture<V>> m : misses.entrySet()) {
+            A arg = m.getKey();
+            V value = values.get(arg);
+            if (value != null || values.containsKey(arg))
+                m.getValue().complete(value);
+            else {
+                cache.remove(arg, m.getValue());
+                m.getValue().completeExceptionally(
+                        new IllegalStateException("no result computed for " + arg));
+            }
+        }
+    }
+
+    /** Applies the failure policy to the misses that computeMisses completed */
+    private void settle(Map<A, CompletableFuture<V>> misses, Map<A, Failure<V>> retries) {
+        for (Map.Entry<A, CompletableFuture<V>> m : misses.entrySet()) {
+            A arg = m.getKey();
+            CompletableFuture<V> f = m.getValue();
+            Failure<V> failed = retries.get(arg);
+            try {
+                f.get();
+                if (failed != null)
+                    cache.replace(arg, failed, f);
+            } catch (CancellationException e) {
+                if (failed != null)
+                    failed.releaseRetry();
+            } catch (ExecutionException e) {
+                if (failed != null)
+                    recordFailure(arg, failed, failed.failures + 1, e.getCause());
+                else
+                    recordFailure(arg, f, 1, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // cannot block: f is done
+            }
+        }
+    }
+
+    private void computeEach(Map<A, CompletableFuture<V>> misses) throws InterruptedException {
+        for (Map.Entry<A, CompletableFuture<V>> m : misses.entrySet()) {
+            try {
+                m.getValue().complete(c.compute(m.getKey()));
+            } catch (InterruptedException e) {
+                cancelPending(misses);
+                throw e;
+            } catch (Throwable t) {
+                m.getValue().completeExceptionally(t);
+            }
+        }
+    }
+
+    /** Drops the misses not yet computed; waiters retry them as after a cancellation */
+    private void cancelPending(Map<A, CompletableFuture<V>> misses) {
+        for (Map.Entry<A, CompletableFuture<V>> m : misses.entrySet()) {
+            if (!m.getValue().isDone()) {
+                cache.remove(m.getKey(), m.getValue());
+                m.getValue().cancel(false);
+            }
+        }
+    }
+
+    /** Cached failure; the claim makes sure only one caller retries it */
+    private static final class Failure <V> implements Future<V> {
+        final Throwable cause;
+        final int failures;
+        final long retryAt;
+        private final AtomicBoolean retrying = new AtomicBoolean();
+
+        Failure(Throwable cause, int failures, long retryAt) {
+            this.cause = cause;
+            this.failures = failures;
+            this.retryAt = retryAt;
+        }
+
+        boolean claimRetry() {
+            return System.nanoTime() - retryAt >= 0
+                    && retrying.compareAndSet(false, true);
+        }
+
+        void releaseRetry() {
+            retrying.set(false);
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return true;
+        }
+
+        public V get() throws ExecutionException {
+            throw new ExecutionException(cause);
+        }
+
+        public V get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+import net.jcip.annotations.*;
+
+/**
+ * MemoizerSnapshot
+ * <p/>
+ * Saving the completed entries of a Memoizer and restoring them on startup
+ * <p/>
+ * The file is a header (magic, version, entry count) followed by records of
+ * the form keyLength, key, valueLength, value. Writing walks the memoizer's
+ * map with its weakly consistent iterator, so compute calls proceed while a
+ * snapshot is taken; in-flight and failed computations are skipped. The
+ * snapshot is written to a temporary file and then renamed over the target,
+ * so a crash never leaves a truncated snapshot behind.
+ * <p/>
+ * Restoring maps the file into memory and decodes only the keys. Each value
+ * is installed as a completed future over its slice of the mapping and is
+ * decoded the first time it is asked for, so warm-start time is bounded by
+ * reading the file rather than by deserializing every value. A record that
+ * does not decode is dropped: a bad key when the file is read, a bad value
+ * when it is first asked for, by cancelling its future, which makes the
+ * memoizer evict it and compute the value afresh.
+ */
+public class MemoizerSnapshot {
+    private static final int MAGIC = 0x4d454d4f; // "MEMO"
+    private static final int VERSION = 2; // 1 prefixed BigIntegers with a second length
+    private static final int HEADER_SIZE = 12;
+
+    // The field's own length prefix says where the bytes end
+    public static final EntryCodec<BigInteger> BIG_INTEGER = new EntryCodec<BigInteger>() {
+        public void encode(BigInteger value, DataOutput out) throws IOException {
+            out.write(value.toByteArray());
+        }
+
+        public BigInteger decode(ByteBuffer in) {
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            return new BigInteger(bytes);
+        }
+    };
+
+    // Elements share the field, so each carries its length. The count and
+    // lengths come from the file, so they are checked against what is left
+    // of the field before anything is allocated for them.
+    public static final EntryCodec<BigInteger[]> BIG_INTEGER_ARRAY = new EntryCodec<BigInteger[]>() {
+        public void encode(BigInteger[] value, DataOutput out) throws IOException {
+            out.writeInt(value.length);
+            for (BigInteger i : value) {
+                byte[] bytes = i.toByteArray();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        public BigInteger[] decode(ByteBuffer in) {
+            BigInteger[] value = new BigInteger[checkLength(in.getInt(), in.remaining() / 4)];
+            for (int i = 0; i < value.length; i++) {
+                byte[] bytes = new byte[checkLength(in.getInt(), in.remaining())];
+                in.get(bytes);
+                value[i] = new BigInteger(bytes);
+            }
+            return value;
+        }
+    };
+
+    /** Writes the completed entries of memoizer to file; returns the number written */
+    public static <A, V> int write(Memoizer<A, V> memoizer, File file,
+                                   final EntryCodec<? super A> keyCodec,
+                                   final EntryCodec<? super V> valueCodec) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        final int[] count = new int[1];
+        try (final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0); // patched below
+            final ByteArrayOutputStream record = new ByteArrayOutputStream();
+            final DataOutputStream recordOut = new DataOutputStream(record);
+            try {
+                memoizer.forEachCompleted(new BiConsumer<A, V>() {
+                    public void accept(A key, V value) {
+                        try {
+                            writeField(keyCodec, key, out, record, recordOut);
+                            writeField(valueCodec, value, out, record, recordOut);
+                            count[0]++;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.seek(8);
+            raf.writeInt(count[0]);
+            raf.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count[0];
+    }
+
+    private static <T> void writeField(EntryCodec<T> codec, Object value,
+                                       DataOutputStream out, ByteArrayOutputStream record,
+                                       DataOutputStream recordOut) throws IOException {
+        record.reset();
+        @SuppressWarnings("unchecked") T t = (T) value; // write passes each codec its own type
+        codec.encode(t, recordOut);
+        out.writeInt(record.size());
+        record.writeTo(out);
+    }
+
+    /**
+     * Installs the entries in file into memoizer, leaving any entry it
+     * already has alone; returns the number of entries installed.
+     */
+    public static <A, V> int restore(Memoizer<A, V> memoizer, File file,
+                                     EntryCodec<? extends A> keyCodec,
+                                     EntryCodec<? extends V> valueCodec) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("snapshot too large to map: " + channel.size());
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC)
+            throw new IOException("not a memoizer snapshot: " + file);
+        int version = buf.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported snapshot version " + version);
+        int count = buf.getInt();
+        int installed = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                A key = decode(keyCodec, nextField(buf));
+                ByteBuffer value = nextField(buf);
+                if (key != null && memoizer.preload(key, new DecodedFuture<V>(value, valueCodec)))
+                    installed++;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated snapshot: " + file, e);
+        }
+        return installed;
+    }
+
+    /** Returns a view of the next length-prefixed field and skips over it */
+    private static ByteBuffer nextField(ByteBuffer buf) {
+        int length = checkLength(buf.getInt(), buf.remaining());
+        ByteBuffer field = buf.slice();
+        field.limit(length);
+        buf.position(buf.position() + length);
+        return field;
+    }
+
+    /** Returns length, unless it is negative or more than max */
+    private static int checkLength(int length, int max) {
+        if (length < 0 || length > max)
+            throw new BufferUnderflowException();
+        return length;
+    }
+
+    /** Returns the value in field, or null if it is corrupt */
+    private static <T> T decode(EntryCodec<T> codec, ByteBuffer field) {
+        try {
+            T value = codec.decode(field);
+            return field.hasRemaining() ? null : value;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** A completed future whose value is decoded on first use, or cancelled if it cannot be */
+    @ThreadSafe
+    private static class DecodedFuture <V> implements Future<V> {
+        @GuardedBy("this") private ByteBuffer bytes;
+        @GuardedBy("this") private EntryCodec<? extends V> codec;
+        private volatile V value;
+        private volatile boolean corrupt;
+
+        DecodedFuture(ByteBuffer bytes, EntryCodec<? extends V> codec) {
+            this.bytes = bytes;
+            this.codec = codec;
+        }
+
+        public V get() {
+            V v = value;
+            if (v == null) {
+                synchronized (this) {
+                    if (bytes != null) {
+                        value = decode(codec, bytes);
+                        corrupt = (value == null);
+                        bytes = null;
+                        codec = null;
+                    }
+                    if (corrupt)
+                        throw new CancellationException("corrupt snapshot record");
+                    v = value;
+                }
+            }
+            return v;
+        }
+
+        public V get(long timeout, TimeUnit unit) {
+            return get();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return corrupt;
+        }
+
+        public boolean isDone() {
+            return true;
+        }
+    }
+}
@@ -8,15 +8,24 @@ import net.jcip.annotations.*;
  * MonitorVehicleTracker
  * <p/>
  * Monitor-based vehicle tracker implementation
+ * <p/>
+ * A SpatialGrid of the locations, updated under the tracker's lock,
+ * answers area and nearest-vehicle queries; being thread-safe itself, it
+ * is queried without the lock, so that queries neither copy the map nor
+ * hold up updates.
  *
  * @author Brian Goetz and Tim Peierls
  */
 @ThreadSafe
  public class MonitorVehicleTracker {
     @GuardedBy("this") private final Map<String, MutablePoint> locations;
+    private final SpatialGrid<String> grid = new SpatialGrid<String>(GRID_CELL_SIZE);
+    private static final int GRID_CELL_SIZE = 100; // about the radius of a typical query
 
     public MonitorVehicleTracker(Map<String, MutablePoint> locations) {
         this.locations = deepCopy(locations);
+        for (Map.Entry<String, MutablePoint> e : this.locations.entrySet())
+            grid.put(e.getKey(), e.getValue().x, e.getValue().y);
     }
 
     public synchronized Map<String, MutablePoint> getLocations() {
@@ -34,6 +43,20 @@ import net.jcip.annotations.*;
             throw new IllegalArgumentException("No such ID: " + id);
         loc.x = x;
         loc.y = y;
+        grid.put(id, x, y);
+    }
+
+    public List<String> getVehiclesWithin(int x, int y, int radius) {
+        return grid.withinRadius(x, y, radius);
+    }
+
+    public List<String> getVehiclesInBox(int minX, int minY, int maxX, int maxY) {
+        return grid.withinBox(minX, minY, maxX, maxY);
+    }
+
+    /** Returns the ids of the k vehicles nearest (x, y), nearest first */
+    public List<String> getNearestVehicles(int x, int y, int k) {
+        return grid.nearest(x, y, k);
     }
 
     private static Map<String, MutablePoint> deepCopy(Map<String, MutablePoint> m) {
@@ -0,0 +1,211 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import net.jcip.annotations.*;
+
+/**
+ * MulticastRingBuffer
+ * <p/>
+ * Ring buffer with one producer whose every item is seen by every subscriber
+ * <p/>
+ * Rather than copying each item into a queue per consumer, the producer
+ * writes it once into a ring, and each subscriber reads it from there with
+ * a cursor of its own. Items are numbered in the order they are published;
+ * the producer publishes its count with a lazySet after writing a slot, and
+ * a subscriber publishes its cursor the same way after reading one. The
+ * producer may only reuse a slot once the slowest subscriber has read it, so
+ * it is gated by the lowest cursor, which it rereads only when the copy it
+ * keeps says the ring is full.
+ * <p/>
+ * A blocking WaitStrategy only signals when it sees a waiter, so with one
+ * the count and the cursors are published with a volatile write instead:
+ * otherwise the signaller could read the waiter count before its store
+ * became visible, miss a waiter that registered in between, and leave it
+ * asleep.
+ * <p/>
+ * put and offer must only be called by one producer thread, and each
+ * Subscriber must only be used by one consumer thread. A subscriber sees
+ * every item published after subscribe returns. Slots are not cleared when
+ * read, so up to capacity items stay reachable until they are overwritten.
+ */
+@ThreadSafe
+public class MulticastRingBuffer <E> {
+    private final int capacity;
+    private final int mask;
+    private final E[] items;
+    private final Sequence published = new Sequence(); // number of items published
+    private volatile Sequence[] cursors = new Sequence[0]; // copy-on-write, under this
+    private volatile long lowestCursor; // written by the producer only: the lowest cursor as last read
+    private final WaitStrategy waitStrategy;
+    private final boolean fenced; // publish with set, not lazySet
+    private final BooleanSupplier notFull = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            long p = published.get();
+            return p - readCursors(p) < capacity;
+        }
+    };
+
+    public MulticastRingBuffer(int capacity) {
+        this(capacity, WaitStrategy.spinPark());
+    }
+
+    public MulticastRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException();
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity)
+            length <<= 1;
+        this.capacity = capacity;
+        this.mask = length - 1;
+        @SuppressWarnings("unchecked") E[] items = (E[]) new Object[length];
+        this.items = items;
+        this.waitStrategy = waitStrategy;
+        this.fenced = waitStrategy.signals();
+    }
+
+    /** Publishes e unless the slowest subscriber is a full ring behind */
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long p = published.get();
+        if (p - lowestCursor >= capacity && p - readCursors(p) >= capacity)
+            return false;
+        items[(int) p & mask] = e;
+        publish(published, p + 1);
+        return true;
+    }
+
+    // BLOCKS-UNTIL: the slowest subscriber is less than a full ring behind
+    public void put(E e) throws InterruptedException {
+        for (int round = 0; !offer(e); round++)
+            waitStrategy.await(round, notFull);
+    }
+
+    /**
+     * Adds a subscriber, which sees every item published from now on until
+     * it is closed. An open subscriber that stops reading stops the producer.
+     */
+    public Subscriber subscribe() {
+        Sequence cursor = new Sequence();
+        cursor.set(published.get());
+        synchronized (this) {
+            Sequence[] added = Arrays.copyOf(cursors, cursors.length + 1);
+            added[cursors.length] = cursor;
+            cursors = added;
+        }
+        // A producer that has not seen the new cursor is gated by the
+        // lowest cursor it last read, which its lazySet of the count may
+        // not have let us catch up with yet, so start no lower than that
+        cursor.set(Math.max(published.get(), lowestCursor));
+        return new Subscriber(cursor);
+    }
+
+    private synchronized void unsubscribe(Sequence cursor) {
+        List<Sequence> remaining = new ArrayList<>(Arrays.asList(cursors));
+        remaining.remove(cursor);
+        cursors = remaining.toArray(new Sequence[0]);
+        waitStrategy.signalAll(); // the producer may have been waiting for it
+    }
+
+    /**
+     * Records and returns the lowest cursor, or p if there are no
+     * subscribers. It is recorded before the cursors are checked for a new
+     * subscriber, so a subscriber the producer missed finds it when it
+     * picks its start.
+     */
+    private long readCursors(long p) {
+        while (true) {
+            Sequence[] subscribed = cursors;
+            long lowest = p;
+            for (Sequence cursor : subscribed)
+                lowest = Math.min(lowest, cursor.get());
+            lowestCursor = lowest;
+            if (cursors == subscribed)
+                return lowest;
+        }
+    }
+
+    private void publish(Sequence sequence, long value) {
+        if (fenced)
+            sequence.set(value);
+        else
+            sequence.lazySet(value);
+        waitStrategy.signalAll();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** One consumer's view of the ring */
+    @NotThreadSafe
+    public class Subscriber {
+        private final Sequence cursor; // number of items read
+        private long available; // the producer's count as last read
+        private final BooleanSupplier notEmpty = new BooleanSupplier() {
+            public boolean getAsBoolean() {
+                return cursor.get() < published.get();
+            }
+        };
+
+        private Subscriber(Sequence cursor) {
+            this.cursor = cursor;
+            this.available = cursor.get();
+        }
+
+        public E poll() {
+            long c = cursor.get();
+            if (c >= available) {
+                available = published.get();
+                if (c >= available)
+                    return null;
+            }
+            E e = items[(int) c & mask];
+            publish(cursor, c + 1);
+            return e;
+        }
+
+        // BLOCKS-UNTIL: not-empty
+        public E take() throws InterruptedException {
+            E e;
+            for (int round = 0; (e = poll()) == null; round++)
+                waitStrategy.await(round, notEmpty);
+            return e;
+        }
+
+        /**
+         * Adds up to maxElements of the items published so far to c and
+         * moves the cursor past them all at once; returns how many it added.
+         */
+        public int drainTo(Collection<? super E> c, int maxElements) {
+            long first = cursor.get();
+            available = published.get();
+            int n = (int) Math.min(maxElements, available - first);
+            if (n <= 0)
+                return 0;
+            for (long s = first; s < first + n; s++)
+                c.add(items[(int) s & mask]);
+            publish(cursor, first + n);
+            return n;
+        }
+
+        /** Returns the number of items published that this subscriber has not yet read */
+        public int lag() {
+            return (int) (published.get() - cursor.get());
+        }
+
+        /** Stops this subscriber from holding back the producer */
+        public void close() {
+            unsubscribe(cursor);
+        }
+    }
+
+    /** A count alone on its cache line */
+    private static final class Sequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,183 @@
+package net.jcip.examples;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * OffHeapBoundedBuffer
+ * <p/>
+ * Bounded buffer whose items are stored as bytes outside the Java heap
+ * <p/>
+ * The slots are fixed-size regions of one direct ByteBuffer, so however
+ * large the payloads, the buffer adds nothing to the heap that the garbage
+ * collector has to trace or copy. Producers encode each item straight into
+ * its slot, and consumers read it from there through a read-only view,
+ * either with the codec (take) or with their own reader (takeInPlace), so
+ * a payload is never copied through an intermediate array.
+ * <p/>
+ * Slots are claimed and handed over with the per-slot sequence numbers of
+ * LockFreeBoundedBuffer. Encoding and decoding happen while the slot is
+ * claimed, so a slow codec only holds up the one slot it is working on.
+ * The off-heap memory is released when the buffer is garbage collected.
+ */
+@ThreadSafe
+public class OffHeapBoundedBuffer <T> {
+    private final int capacity;
+    private final int slotSize;
+    private final SlotCodec<T> codec;
+    private final WaitStrategy waitStrategy;
+    // Views of each slot; a view is only used by the thread that has claimed its slot
+    private final ByteBuffer[] writeViews, readViews;
+    private final int[] lengths; // payload length of each slot, -1 if encoding failed
+    private final AtomicLongArray sequences;
+    private final AtomicLong putPosition = new AtomicLong();
+    private final AtomicLong takePosition = new AtomicLong();
+    private final Function<ByteBuffer, T> decoder = new Function<ByteBuffer, T>() {
+        public T apply(ByteBuffer slot) {
+            return codec.decode(slot);
+        }
+    };
+    private final BooleanSupplier notFull = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isFull();
+        }
+    };
+    private final BooleanSupplier notEmpty = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isEmpty();
+        }
+    };
+
+    public OffHeapBoundedBuffer(int capacity, int slotSize, SlotCodec<T> codec) {
+        this(capacity, slotSize, codec, WaitStrategy.spinPark());
+    }
+
+    public OffHeapBoundedBuffer(int capacity, int slotSize, SlotCodec<T> codec,
+                                WaitStrategy waitStrategy) {
+        int stride = (slotSize + 7) & ~7; // keeps every slot 8-byte aligned
+        if (capacity <= 0 || slotSize <= 0 || (long) capacity * stride > Integer.MAX_VALUE)
+            throw new IllegalArgumentException();
+        this.capacity = capacity;
+        this.slotSize = slotSize;
+        this.codec = codec;
+        this.waitStrategy = waitStrategy;
+        this.lengths = new int[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.writeViews = new ByteBuffer[capacity];
+        this.readViews = new ByteBuffer[capacity];
+        ByteBuffer memory = ByteBuffer.allocateDirect(capacity * stride);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, 2L * i);
+            ByteBuffer slot = memory.duplicate();
+            slot.limit(i * stride + slotSize);
+            slot.position(i * stride);
+            writeViews[i] = slot.slice();
+            readViews[i] = writeViews[i].asReadOnlyBuffer();
+        }
+    }
+
+    // BLOCKS-UNTIL: not-full
+    public void put(T item) throws InterruptedException {
+        long pos;
+        for (int round = 0; (pos = claimPut()) < 0; round++)
+            waitStrategy.await(round, notFull);
+        int i = index(pos);
+        ByteBuffer slot = writeViews[i];
+        slot.clear();
+        try {
+            lengths[i] = -1;
+            codec.encode(item, slot);
+            lengths[i] = slot.position();
+        } finally {
+            // Published even if encoding failed, so that the ring keeps
+            // moving; takers skip the slot
+            sequences.lazySet(i, 2 * pos + 1);
+            waitStrategy.signalAll();
+        }
+    }
+
+    // BLOCKS-UNTIL: not-empty
+    public T take() throws InterruptedException {
+        return takeInPlace(decoder);
+    }
+
+    /**
+     * Takes the next item, blocking until there is one, and returns what
+     * reader makes of its payload. reader is given a read-only view of the
+     * payload in the buffer, valid only during the call.
+     */
+    public <R> R takeInPlace(Function<? super ByteBuffer, ? extends R> reader)
+            throws InterruptedException {
+        while (true) {
+            long pos;
+            for (int round = 0; (pos = claimTake()) < 0; round++)
+                waitStrategy.await(round, notEmpty);
+            int i = index(pos);
+            try {
+                int length = lengths[i];
+                if (length < 0)
+                    continue;
+                ByteBuffer slot = readViews[i];
+                slot.clear();
+                slot.limit(length);
+                return reader.apply(slot);
+            } finally {
+                sequences.lazySet(i, 2 * (pos + capacity));
+                waitStrategy.signalAll();
+            }
+        }
+    }
+
+    /** Claims the next slot to fill, returning its position, or -1 if the buffer is full */
+    private long claimPut() {
+        while (true) {
+            long pos = putPosition.get();
+            long dif = sequences.get(index(pos)) - 2 * pos;
+            if (dif < 0)
+                return -1;
+            if (dif == 0 && putPosition.compareAndSet(pos, pos + 1))
+                return pos;
+        }
+    }
+
+    /** Claims the next slot to empty, returning its position, or -1 if the buffer is empty */
+    private long claimTake() {
+        while (true) {
+            long pos = takePosition.get();
+            long dif = sequences.get(index(pos)) - (2 * pos + 1);
+            if (dif < 0)
+                return -1;
+            if (dif == 0 && takePosition.compareAndSet(pos, pos + 1))
+                return pos;
+        }
+    }
+
+    /** Returns the number of items; only an estimate while others are active */
+    public int size() {
+        while (true) {
+            long take = takePosition.get();
+            long put = putPosition.get();
+            if (take == takePosition.get())
+                return (int) Math.max(0, Math.min(put - take, capacity));
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    public int slotSize() {
+        return slotSize;
+    }
+
+    private int index(long pos) {
+        return (int) (pos % capacity);
+    }
+}
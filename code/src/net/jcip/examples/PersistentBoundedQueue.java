@@ -0,0 +1,611 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+
+import net.jcip.annotations.*;
+
+/**
+ * PersistentBoundedQueue
+ * <p/>
+ * Bounded blocking queue whose items survive a crash, kept in memory-mapped segment files
+ * <p/>
+ * Items are encoded with an EntryCodec and appended to the current segment
+ * file as records of the form length, CRC32, payload; a record is never
+ * rewritten, and when one does not fit, an end-of-segment marker is written
+ * and the next segment file is started. The consumer's position is kept
+ * apart from the data, in a small checkpoint file, and segments wholly
+ * behind the checkpoint are deleted. Producers encode straight into the
+ * mapping and consumers decode from it, under separate locks as in
+ * LinkedBlockingQueue, so a producer and a consumer do not contend.
+ * <p/>
+ * Nothing is forced to disk on the put path. sync forces the segments and
+ * then the checkpoint; a background thread calls it every syncInterval, and
+ * is also woken every syncEveryItems puts (either may be turned off with
+ * 0), so producers never wait for the disk. A crash loses the items put
+ * since the last completed sync, and items taken since then are delivered
+ * again when the queue is reopened. On
+ * reopening, the records after the checkpoint are scanned and checked
+ * against their CRCs, and the first missing or torn record ends the queue.
+ * Consumed segments are deleted by sync too, so with both syncInterval and
+ * syncEveryItems 0 they are only reclaimed when the caller calls sync.
+ * <p/>
+ * A failed background sync is rethrown, as an UncheckedIOException, to the
+ * next producer, before its item is enqueued, so a producer that gets one
+ * can retry without putting the item twice. The iterator is a snapshot and
+ * does not support removal.
+ */
+@ThreadSafe
+public class PersistentBoundedQueue <E> extends AbstractQueue<E>
+        implements BlockingQueue<E>, Closeable {
+    private static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    private static final int DEFAULT_SYNC_ITEMS = 1000;
+    private static final long DEFAULT_SYNC_MILLIS = 100;
+    private static final int RECORD_HEADER = 8; // length + 1, so that 0 is unwritten space; CRC32
+    private static final int END_OF_SEGMENT = -1;
+    private static final String CHECKPOINT = "consumer.checkpoint";
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    public static final EntryCodec<String> STRING = new EntryCodec<String>() {
+        public void encode(String value, DataOutput out) throws IOException {
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public String decode(ByteBuffer in) {
+            byte[] bytes = new byte[in.remaining()];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    private final File dir;
+    private final int capacity;
+    private final int segmentSize;
+    private final EntryCodec<E> codec;
+    private final int syncEveryItems;
+    private final ScheduledExecutorService syncer; // null if never syncing by itself
+    private final AtomicBoolean syncQueued = new AtomicBoolean();
+    private final Runnable syncTask = new Runnable() {
+        public void run() {
+            syncQueued.set(false);
+            try {
+                sync();
+            } catch (IOException e) {
+                syncFailure.set(e);
+            }
+        }
+    };
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger unsynced = new AtomicInteger(); // puts since the last sync
+    private final ConcurrentMap<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+    private final AtomicReference<IOException> syncFailure = new AtomicReference<>();
+
+    private final ReentrantLock putLock = new ReentrantLock();
+    private final Condition notFull = putLock.newCondition();
+    @GuardedBy("putLock") private long writePosition;
+    // View of the segment holding writePosition, limited so that there is always room for a marker
+    @GuardedBy("putLock") private ByteBuffer writeSegment;
+    @GuardedBy("putLock") private final CRC32 crc = new CRC32();
+    // Encodes straight into the segment, at writeSegment's position
+    @GuardedBy("putLock") private final DataOutputStream recordOut = new DataOutputStream(new OutputStream() {
+        public void write(int b) {
+            writeSegment.put((byte) b);
+        }
+
+        public void write(byte[] b, int off, int len) {
+            writeSegment.put(b, off, len);
+        }
+    });
+
+    private final ReentrantLock takeLock = new ReentrantLock();
+    private final Condition notEmpty = takeLock.newCondition();
+    @GuardedBy("takeLock") private long readPosition;
+    @GuardedBy("takeLock") private ByteBuffer readSegment; // view of the segment holding readPosition
+
+    private final Object syncLock = new Object();
+    @GuardedBy("syncLock") private final MappedByteBuffer checkpoint; // consumer position, segment size
+    @GuardedBy("syncLock") private long checkpointed;
+    @GuardedBy("syncLock") private long synced; // write position as of the last sync
+    @GuardedBy("syncLock") private long firstUnsynced; // index of the first segment that may hold unforced writes
+
+    public PersistentBoundedQueue(File dir, int capacity, EntryCodec<E> codec) throws IOException {
+        this(dir, capacity, codec, DEFAULT_SEGMENT_SIZE,
+                DEFAULT_SYNC_ITEMS, DEFAULT_SYNC_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the queue kept in dir, creating it if need be. segmentSize must
+     * be the same every time a directory is opened.
+     */
+    public PersistentBoundedQueue(File dir, int capacity, EntryCodec<E> codec, int segmentSize,
+                                  int syncEveryItems, long syncInterval, TimeUnit unit)
+            throws IOException {
+        if (capacity <= 0 || segmentSize <= RECORD_HEADER + 4 || syncEveryItems < 0 || syncInterval < 0)
+            throw new IllegalArgumentException();
+        dir.mkdirs();
+        if (!dir.isDirectory())
+            throw new IOException("not a directory: " + dir);
+        this.dir = dir;
+        this.capacity = capacity;
+        this.segmentSize = segmentSize;
+        this.codec = codec;
+        this.syncEveryItems = syncEveryItems;
+        this.checkpoint = map(new File(dir, CHECKPOINT), 12);
+        recover();
+        if (syncEveryItems == 0 && syncInterval == 0) {
+            this.syncer = null;
+        } else {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PersistentBoundedQueue-sync " + PersistentBoundedQueue.this.dir);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            if (syncInterval > 0)
+                syncer.scheduleWithFixedDelay(syncTask, syncInterval, syncInterval, unit);
+        }
+    }
+
+    /** Finds the consumer's position and scans the records after it for the producer's */
+    private void recover() throws IOException {
+        SortedSet<Long> existing = new TreeSet<>();
+        for (String name : dir.list()) {
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    existing.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16));
+                } catch (NumberFormatException notOurs) {
+                }
+            }
+        }
+        int savedSegmentSize = checkpoint.getInt(8);
+        long read;
+        if (savedSegmentSize == 0) { // new, or the checkpoint was never completed
+            read = existing.isEmpty() ? 0 : existing.first() * segmentSize;
+        } else if (savedSegmentSize != segmentSize) {
+            throw new IOException("queue in " + dir + " has segments of " + savedSegmentSize + " bytes");
+        } else {
+            read = checkpoint.getLong(0);
+        }
+        // Consumed segments left behind by a crash before they were deleted
+        for (long index : existing.headSet(segmentOf(read)))
+            segmentFile(index).delete();
+
+        long position = read;
+        int n = 0;
+        ByteBuffer segment = segment(segmentOf(position)).duplicate();
+        CRC32 check = new CRC32();
+        while (true) {
+            int offset = offset(position);
+            int header = segment.getInt(offset);
+            if (header == END_OF_SEGMENT && existing.contains(segmentOf(position) + 1)) {
+                position = (segmentOf(position) + 1) * segmentSize;
+                segment = segment(segmentOf(position)).duplicate();
+                continue;
+            }
+            int length = header - 1;
+            if (length < 0 || length > segmentSize - offset - RECORD_HEADER - 4)
+                break;
+            segment.limit(offset + RECORD_HEADER + length).position(offset + RECORD_HEADER);
+            check.reset();
+            check.update(segment);
+            segment.clear();
+            if ((int) check.getValue() != segment.getInt(offset + 4))
+                break;
+            n++;
+            position += RECORD_HEADER + length;
+        }
+        // Segments after a torn record may hold stale data; they will be rewritten
+        for (long index : existing.tailSet(segmentOf(position) + 1))
+            segmentFile(index).delete();
+
+        segment.clear();
+        segment.limit(segmentSize - 4);
+        writePosition = position;
+        writeSegment = segment;
+        readPosition = read;
+        readSegment = segment(segmentOf(read)).duplicate();
+        count.set(n);
+        checkpointed = read;
+        synced = position;
+        firstUnsynced = segmentOf(read);
+        checkpoint.putLong(0, read);
+        checkpoint.putInt(8, segmentSize);
+        checkpoint.force();
+    }
+
+    // BLOCKS-UNTIL: not-full
+    public void put(E e) throws InterruptedException {
+        checkNotNull(e);
+        checkSyncFailure();
+        int c;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() >= capacity)
+                notFull.await();
+            c = enqueue(e);
+        } finally {
+            putLock.unlock();
+        }
+        afterEnqueue(c);
+    }
+
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(e);
+        checkSyncFailure();
+        long nanos = unit.toNanos(timeout);
+        int c;
+        putLock.lockInterruptibly();
+        try {
+            while (count.get() >= capacity) {
+                if (nanos <= 0)
+                    return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            c = enqueue(e);
+        } finally {
+            putLock.unlock();
+        }
+        afterEnqueue(c);
+        return true;
+    }
+
+    public boolean offer(E e) {
+        checkNotNull(e);
+        checkSyncFailure();
+        int c;
+        putLock.lock();
+        try {
+            if (count.get() >= capacity)
+                return false;
+            c = enqueue(e);
+        } finally {
+            putLock.unlock();
+        }
+        afterEnqueue(c);
+        return true;
+    }
+
+    // BLOCKS-UNTIL: not-empty
+    public E take() throws InterruptedException {
+        E e;
+        int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0)
+                notEmpty.await();
+            e = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity)
+            signalNotFull();
+        return e;
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        E e;
+        int c;
+        takeLock.lockInterruptibly();
+        try {
+            while (count.get() == 0) {
+                if (nanos <= 0)
+                    return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            e = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity)
+            signalNotFull();
+        return e;
+    }
+
+    public E poll() {
+        E e;
+        int c;
+        takeLock.lock();
+        try {
+            if (count.get() == 0)
+                return null;
+            e = dequeue();
+            c = count.getAndDecrement();
+            if (c > 1)
+                notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+        if (c == capacity)
+            signalNotFull();
+        return e;
+    }
+
+    public E peek() {
+        takeLock.lock();
+        try {
+            if (count.get() == 0)
+                return null;
+            skipEndOfSegment();
+            return decode(readSegment, offset(readPosition));
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        int before;
+        takeLock.lock();
+        try {
+            try {
+                for (int max = Math.min(maxElements, count.get()); n < max; n++)
+                    c.add(dequeue());
+            } finally {
+                before = count.getAndAdd(-n);
+            }
+        } finally {
+            takeLock.unlock();
+        }
+        if (before >= capacity && before - n < capacity)
+            signalNotFull();
+        return n;
+    }
+
+    /**
+     * Forces the items put so far to disk, then records how far the
+     * consumer has got; returns once both are durable.
+     */
+    public void sync() throws IOException {
+        synchronized (syncLock) {
+            unsynced.set(0);
+            long written, read;
+            putLock.lock();
+            try {
+                written = writePosition;
+            } finally {
+                putLock.unlock();
+            }
+            takeLock.lock();
+            try {
+                read = readPosition;
+            } finally {
+                takeLock.unlock();
+            }
+            if (written != synced) {
+                for (long index = firstUnsynced; index <= segmentOf(written); index++) {
+                    MappedByteBuffer segment = segments.get(index);
+                    if (segment != null) // null if already consumed and deleted
+                        segment.force();
+                }
+                firstUnsynced = segmentOf(written);
+                synced = written;
+            }
+            if (read != checkpointed) {
+                checkpoint.putLong(0, read);
+                checkpoint.force();
+                for (long index = segmentOf(checkpointed); index < segmentOf(read); index++) {
+                    segments.remove(index);
+                    segmentFile(index).delete();
+                }
+                checkpointed = read;
+            }
+        }
+    }
+
+    /**
+     * Stops the background syncs and syncs one last time. The queue can
+     * still be used, but is only synced by calling sync.
+     */
+    public void close() throws IOException {
+        if (syncer != null)
+            syncer.shutdownNow();
+        sync();
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    public int remainingCapacity() {
+        return Math.max(0, capacity - count.get());
+    }
+
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        putLock.lock();
+        takeLock.lock();
+        try {
+            skipEndOfSegment();
+            long position = readPosition;
+            ByteBuffer segment = readSegment.duplicate();
+            for (int i = count.get(); i > 0; i--) {
+                if (segment.getInt(offset(position)) == END_OF_SEGMENT) {
+                    position = (segmentOf(position) + 1) * segmentSize;
+                    segment = segments.get(segmentOf(position)).duplicate();
+                }
+                snapshot.add(decode(segment, offset(position)));
+                position += RECORD_HEADER + segment.getInt(offset(position)) - 1;
+            }
+        } finally {
+            takeLock.unlock();
+            putLock.unlock();
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /** Appends e after the last record and returns the count before it */
+    @GuardedBy("putLock")
+    private int enqueue(E e) {
+        int offset = offset(writePosition);
+        int length;
+        while (true) {
+            try {
+                if (offset + RECORD_HEADER > writeSegment.limit())
+                    throw new BufferOverflowException();
+                writeSegment.position(offset + RECORD_HEADER);
+                codec.encode(e, recordOut);
+                length = writeSegment.position() - offset - RECORD_HEADER;
+                break;
+            } catch (BufferOverflowException full) {
+                if (offset == 0)
+                    throw new IllegalArgumentException(e + " does not fit in a segment of "
+                            + segmentSize + " bytes");
+                nextWriteSegment(offset);
+                offset = 0;
+            } catch (IOException ex) {
+                throw new IllegalArgumentException("cannot encode " + e, ex);
+            }
+        }
+        writeSegment.limit(offset + RECORD_HEADER + length).position(offset + RECORD_HEADER);
+        crc.reset();
+        crc.update(writeSegment);
+        // The terminator may take the last 4 bytes, which the encoder's limit keeps free
+        writeSegment.limit(segmentSize);
+        writeSegment.putInt(offset + RECORD_HEADER + length, 0); // may be stale after recovery
+        writeSegment.putInt(offset + 4, (int) crc.getValue());
+        writeSegment.putInt(offset, length + 1);
+        writeSegment.limit(segmentSize - 4);
+        writePosition += RECORD_HEADER + length;
+        int c = count.getAndIncrement();
+        if (c + 1 < capacity)
+            notFull.signal();
+        return c;
+    }
+
+    /** Ends the current segment at offset and moves on to the next */
+    @GuardedBy("putLock")
+    private void nextWriteSegment(int offset) {
+        // Mapped before the marker is written, so that a consumer that reads
+        // the marker finds the next segment
+        ByteBuffer next;
+        try {
+            next = segment(segmentOf(writePosition) + 1).duplicate();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        next.limit(segmentSize - 4);
+        writeSegment.limit(segmentSize); // the marker may take the last 4 bytes
+        writeSegment.putInt(offset, END_OF_SEGMENT);
+        writePosition = (segmentOf(writePosition) + 1) * segmentSize;
+        writeSegment = next;
+    }
+
+    /** Rethrows a failed background sync, to one producer, before it enqueues anything */
+    private void checkSyncFailure() {
+        IOException failure = syncFailure.getAndSet(null);
+        if (failure != null)
+            throw new UncheckedIOException(failure);
+    }
+
+    private void afterEnqueue(int c) {
+        if (c == 0)
+            signalNotEmpty();
+        if (syncEveryItems > 0 && unsynced.incrementAndGet() >= syncEveryItems
+                && syncQueued.compareAndSet(false, true)) {
+            try {
+                syncer.execute(syncTask);
+            } catch (RejectedExecutionException closed) {
+            }
+        }
+    }
+
+    /** Removes and returns the first record; the caller decrements the count */
+    @GuardedBy("takeLock")
+    private E dequeue() {
+        skipEndOfSegment();
+        int offset = offset(readPosition);
+        // Advanced before decoding, so that an item the codec fails on is skipped
+        readPosition += RECORD_HEADER + readSegment.getInt(offset) - 1;
+        return decode(readSegment, offset);
+    }
+
+    @GuardedBy("takeLock")
+    private void skipEndOfSegment() {
+        if (readSegment.getInt(offset(readPosition)) == END_OF_SEGMENT) {
+            readPosition = (segmentOf(readPosition) + 1) * segmentSize;
+            readSegment = segments.get(segmentOf(readPosition)).duplicate();
+        }
+    }
+
+    /** Decodes the record at offset; segment must be a view private to the caller */
+    private E decode(ByteBuffer segment, int offset) {
+        segment.limit(offset + RECORD_HEADER + segment.getInt(offset) - 1);
+        segment.position(offset + RECORD_HEADER);
+        ByteBuffer payload = segment.slice();
+        segment.clear();
+        return codec.decode(payload);
+    }
+
+    private void signalNotEmpty() {
+        takeLock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            takeLock.unlock();
+        }
+    }
+
+    private void signalNotFull() {
+        putLock.lock();
+        try {
+            notFull.signal();
+        } finally {
+            putLock.unlock();
+        }
+    }
+
+    /** Returns the mapping of a segment, creating the segment file if need be */
+    private MappedByteBuffer segment(long index) throws IOException {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            segment = map(segmentFile(index), segmentSize);
+            segments.put(index, segment);
+        }
+        return segment;
+    }
+
+    private File segmentFile(long index) {
+        return new File(dir, String.format("%016x", index) + SEGMENT_SUFFIX);
+    }
+
+    private long segmentOf(long position) {
+        return position / segmentSize;
+    }
+
+    private int offset(long position) {
+        return (int) (position % segmentSize);
+    }
+
+    // The mapping stays valid after the channel is closed
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static void checkNotNull(Object e) {
+        if (e == null)
+            throw new NullPointerException();
+    }
+}
@@ -0,0 +1,135 @@
+package net.jcip.examples;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import junit.framework.TestCase;
+
+/**
+ * PrimitivePutTakeTest
+ * <p/>
+ * Producer-consumer test comparing boxed and primitive buffers, with allocation rate
+ * <p/>
+ * Runs the PutTakeTest workload through SemaphoreBoundedBuffer<Integer>,
+ * IntBoundedBuffer and LongBoundedBuffer, and reports the bytes allocated
+ * per item by the producer and consumer threads next to the throughput.
+ */
+public class PrimitivePutTakeTest extends TestCase {
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+    private final BarrierTimer timer = new BarrierTimer();
+    private final CyclicBarrier barrier;
+    // Exactly one of these is set
+    private final BlockingBuffer<Integer> boxed;
+    private final IntBoundedBuffer ints;
+    private final LongBoundedBuffer longs;
+    private final int nTrials, nPairs;
+    private final AtomicLong putSum = new AtomicLong(0);
+    private final AtomicLong takeSum = new AtomicLong(0);
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+
+    PrimitivePutTakeTest(String kind, int capacity, int npairs, int ntrials) {
+        this.boxed = kind.equals("boxed") ? new SemaphoreBoundedBuffer<Integer>(capacity) : null;
+        this.ints = kind.equals("int") ? new IntBoundedBuffer(capacity) : null;
+        this.longs = kind.equals("long") ? new LongBoundedBuffer(capacity) : null;
+        if (boxed == null && ints == null && longs == null)
+            throw new IllegalArgumentException(kind);
+        this.nTrials = ntrials;
+        this.nPairs = npairs;
+        this.barrier = new CyclicBarrier(npairs * 2 + 1, timer);
+    }
+
+    void test() {
+        try {
+            timer.clear();
+            allocatedBytes.set(0);
+            for (int i = 0; i < nPairs; i++) {
+                pool.execute(new Producer());
+                pool.execute(new Consumer());
+            }
+            barrier.await();
+            barrier.await();
+            long items = nPairs * (long) nTrials;
+            System.out.print("Throughput: " + timer.getTime() / items + " ns/item, "
+                    + String.format("%.2f", allocatedBytes.get() / (double) items) + " bytes/item");
+            assertEquals(putSum.get(), takeSum.get());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tpt = 100000; // trials per thread
+        String[] kinds = (args.length > 0) ? args : new String[]{"boxed", "int", "long"};
+        for (int cap = 10; cap <= 1000; cap *= 10) {
+            System.out.println("Capacity: " + cap);
+            for (int pairs = 1; pairs <= 16; pairs *= 4) {
+                for (String kind : kinds) {
+                    PrimitivePutTakeTest t = new PrimitivePutTakeTest(kind, cap, pairs, tpt);
+                    System.out.print("Pairs: " + pairs + "\t" + kind + "\t");
+                    t.test(); // warm-up
+                    System.out.print("\t");
+                    t.test();
+                    System.out.println();
+                }
+            }
+        }
+        pool.shutdown();
+    }
+
+    private void recordAllocation(long start) {
+        allocatedBytes.addAndGet(
+                threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start);
+    }
+
+    class Producer implements Runnable {
+        public void run() {
+            try {
+                int seed = (this.hashCode() ^ (int) System.nanoTime());
+                long sum = 0;
+                barrier.await();
+                long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = nTrials; i > 0; --i) {
+                    if (ints != null)
+                        ints.putInt(seed);
+                    else if (longs != null)
+                        longs.putLong(seed);
+                    else
+                        boxed.put(seed);
+                    sum += seed;
+                    seed = PutTakeTest.xorShift(seed);
+                }
+                recordAllocation(start);
+                putSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    class Consumer implements Runnable {
+        public void run() {
+            try {
+                barrier.await();
+                long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+                long sum = 0;
+                for (int i = nTrials; i > 0; --i) {
+                    if (ints != null)
+                        sum += ints.takeInt();
+                    else if (longs != null)
+                        sum += longs.takeLong();
+                    else
+                        sum += boxed.take();
+                }
+                recordAllocation(start);
+                takeSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -16,14 +16,31 @@ public class ProducerConsumer {
      * 扫描文件目录
      */
     static class FileCrawler implements Runnable {
+        // Exactly one of these is set
         private final BlockingQueue<File> fileQueue;
+        private final MulticastRingBuffer<File> fileRing;
         private final FileFilter fileFilter;
         private final File root;
 
         public FileCrawler(BlockingQueue<File> fileQueue,
                            final FileFilter fileFilter,
                            File root) {
+            this(fileQueue, null, fileFilter, root);
+        }
+
+        /** Publishes to a ring, which must have no other producer */
+        public FileCrawler(MulticastRingBuffer<File> fileRing,
+                           final FileFilter fileFilter,
+                           File root) {
+            this(null, fileRing, fileFilter, root);
+        }
+
+        private FileCrawler(BlockingQueue<File> fileQueue,
+                            MulticastRingBuffer<File> fileRing,
+                            final FileFilter fileFilter,
+                            File root) {
             this.fileQueue = fileQueue;
+            this.fileRing = fileRing;
             this.root = root;
             this.fileFilter = new FileFilter() {
                 public boolean accept(File f) {
@@ -52,8 +69,12 @@ public class ProducerConsumer {
                 for (File entry : entries)
                     if (entry.isDirectory())
                         crawl(entry);
-                    else if (!alreadyIndexed(entry))
-                        fileQueue.put(entry);
+                    else if (!alreadyIndexed(entry)) {
+                        if (fileRing != null)
+                            fileRing.put(entry);
+                        else
+                            fileQueue.put(entry);
+                    }
             }
         }
     }
@@ -80,6 +101,28 @@ public class ProducerConsumer {
         }
     }
 
+    /** Hands every file published to the ring to one kind of processing */
+    static abstract class FileSubscriber implements Runnable {
+        private final MulticastRingBuffer<File>.Subscriber files;
+
+        FileSubscriber(MulticastRingBuffer<File> ring) {
+            this.files = ring.subscribe();
+        }
+
+        public void run() {
+            try {
+                while (true)
+                    process(files.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                files.close();
+            }
+        }
+
+        abstract void process(File file);
+    }
+
     //队列大小
     private static final int BOUND = 10;
     //线程数
@@ -99,4 +142,46 @@ public class ProducerConsumer {
         for (int i = 0; i < N_CONSUMERS; i++)
             new Thread(new Indexer(queue)).start();
     }
+
+    /**
+     * Has every file found seen by an indexer, a checksummer and an audit
+     * log, through one ring rather than a queue for each. The roots are
+     * crawled one after another, as the ring takes a single producer.
+     */
+    public static void startMulticastIndexing(final File[] roots) {
+        final MulticastRingBuffer<File> ring = new MulticastRingBuffer<File>(BOUND);
+        final FileFilter filter = new FileFilter() {
+            public boolean accept(File file) {
+                return true;
+            }
+        };
+
+        // Subscribed before the crawler starts, so that they see every file
+        Runnable[] consumers = {
+            new FileSubscriber(ring) {
+                void process(File file) {
+                    // Index the file...
+                }
+            },
+            new FileSubscriber(ring) {
+                void process(File file) {
+                    // Checksum the file...
+                }
+            },
+            new FileSubscriber(ring) {
+                void process(File file) {
+                    // Record the file in the audit log...
+                }
+            }
+        };
+        for (Runnable consumer : consumers)
+            new Thread(consumer).start();
+
+        new Thread(new Runnable() {
+            public void run() {
+                for (File root : roots)
+                    new FileCrawler(ring, filter, root).run();
+            }
+        }).start();
+    }
 }
@@ -9,6 +9,13 @@ import net.jcip.annotations.*;
  * PublishingVehicleTracker
  * <p/>
  * Vehicle tracker that safely publishes underlying state
+ * <p/>
+ * A SpatialGrid of the locations answers area and nearest-vehicle
+ * queries. setLocation moves a vehicle's point and its place in the grid
+ * while holding the point's lock (the lock SafePoint's own methods use),
+ * so updates to one vehicle reach the grid in the order they were made.
+ * A point changed through getLocations, rather than setLocation, moves
+ * without the grid knowing.
  *
  * @author Brian Goetz and Tim Peierls
  */
@@ -16,10 +23,19 @@ import net.jcip.annotations.*;
 public class PublishingVehicleTracker {
     private final Map<String, SafePoint> locations;
     private final Map<String, SafePoint> unmodifiableMap;
+    private final SpatialGrid<String> grid = new SpatialGrid<String>(GRID_CELL_SIZE);
+    private static final int GRID_CELL_SIZE = 100; // about the radius of a typical query
 
     public PublishingVehicleTracker(Map<String, SafePoint> locations) {
         this.locations = new ConcurrentHashMap<String, SafePoint>(locations);
         this.unmodifiableMap = Collections.unmodifiableMap(this.locations);
+        for (Map.Entry<String, SafePoint> e : this.locations.entrySet()) {
+            SafePoint loc = e.getValue();
+            synchronized (loc) {
+                int[] xy = loc.get();
+                grid.put(e.getKey(), xy[0], xy[1]);
+            }
+        }
     }
 
     public Map<String, SafePoint> getLocations() {
@@ -33,6 +49,23 @@ public class PublishingVehicleTracker {
     public void setLocation(String id, int x, int y) {
         if (!locations.containsKey(id))
             throw new IllegalArgumentException("invalid vehicle name: " + id);
-        locations.get(id).set(x, y);
+        SafePoint loc = locations.get(id);
+        synchronized (loc) {
+            loc.set(x, y);
+            grid.put(id, x, y);
+        }
+    }
+
+    public List<String> getVehiclesWithin(int x, int y, int radius) {
+        return grid.withinRadius(x, y, radius);
+    }
+
+    public List<String> getVehiclesInBox(int minX, int minY, int maxX, int maxY) {
+        return grid.withinBox(minX, minY, maxX, maxY);
+    }
+
+    /** Returns the ids of the k vehicles nearest (x, y), nearest first */
+    public List<String> getNearestVehicles(int x, int y, int k) {
+        return grid.nearest(x, y, k);
     }
 }
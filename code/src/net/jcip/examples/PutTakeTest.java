@@ -15,28 +15,41 @@ import junit.framework.TestCase;
 public class PutTakeTest extends TestCase {
     protected static final ExecutorService pool = Executors.newCachedThreadPool();
     protected CyclicBarrier barrier;
-    protected final SemaphoreBoundedBuffer<Integer> bb;
+    protected final BlockingBuffer<Integer> bb;
     protected final int nTrials, nPairs;
+    // Items per putAll or takeBatch, or 0 to put and take one at a time
+    protected final int batchSize;
     protected final AtomicInteger putSum = new AtomicInteger(0);
     protected final AtomicInteger takeSum = new AtomicInteger(0);
 
     public static void main(String[] args) throws Exception {
         new PutTakeTest(10, 10, 100000).test(); // sample parameters
+        new PutTakeTest(new LockFreeBoundedBuffer<Integer>(10), 10, 100000).test();
+        new PutTakeTest(new LockFreeBoundedBuffer<Integer>(10), 10, 100000, 4).test(); // batched
         pool.shutdown();
     }
 
     public PutTakeTest(int capacity, int npairs, int ntrials) {
-        this.bb = new SemaphoreBoundedBuffer<Integer>(capacity);
+        this(new SemaphoreBoundedBuffer<Integer>(capacity), npairs, ntrials);
+    }
+
+    public PutTakeTest(BlockingBuffer<Integer> bb, int npairs, int ntrials) {
+        this(bb, npairs, ntrials, 0);
+    }
+
+    public PutTakeTest(BlockingBuffer<Integer> bb, int npairs, int ntrials, int batchSize) {
+        this.bb = bb;
         this.nTrials = ntrials;
         this.nPairs = npairs;
+        this.batchSize = batchSize;
         this.barrier = new CyclicBarrier(npairs * 2 + 1);
     }
 
     void test() {
         try {
             for (int i = 0; i < nPairs; i++) {
-                pool.execute(new Producer());
-                pool.execute(new Consumer());
+                pool.execute(newProducer());
+                pool.execute(newConsumer());
             }
             barrier.await(); // wait for all threads to be ready
             barrier.await(); // wait for all threads to finish
@@ -46,6 +59,14 @@ public class PutTakeTest extends TestCase {
         }
     }
 
+    Runnable newProducer() {
+        return (batchSize == 0) ? new Producer() : new BatchProducer();
+    }
+
+    Runnable newConsumer() {
+        return (batchSize == 0) ? new Consumer() : new BatchConsumer();
+    }
+
     static int xorShift(int y) {
         y ^= (y << 6);
         y ^= (y >>> 21);
@@ -87,4 +108,50 @@ public class PutTakeTest extends TestCase {
             }
         }
     }
+
+    class BatchProducer implements Runnable {
+        public void run() {
+            try {
+                int seed = (this.hashCode() ^ (int) System.nanoTime());
+                int sum = 0;
+                Integer[] batch = new Integer[batchSize];
+                barrier.await();
+                for (int i = nTrials; i > 0; i -= batch.length) {
+                    int n = Math.min(i, batch.length);
+                    for (int j = 0; j < n; j++) {
+                        batch[j] = seed;
+                        sum += seed;
+                        seed = xorShift(seed);
+                    }
+                    bb.putAll(batch, 0, n);
+                }
+                putSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    class BatchConsumer implements Runnable {
+        public void run() {
+            try {
+                Integer[] batch = new Integer[batchSize];
+                barrier.await();
+                int sum = 0;
+                for (int i = nTrials; i > 0; ) {
+                    if (i < batch.length) // must not take items meant for other consumers
+                        batch = new Integer[i];
+                    int n = bb.takeBatch(batch);
+                    for (int j = 0; j < n; j++)
+                        sum += batch[j];
+                    i -= n;
+                }
+                takeSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
 }
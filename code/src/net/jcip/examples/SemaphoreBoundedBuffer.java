@@ -1,5 +1,6 @@
 package net.jcip.examples;
 
+import java.util.Collection;
 import java.util.concurrent.*;
 
 import net.jcip.annotations.*;
@@ -12,7 +13,7 @@ import net.jcip.annotations.*;
  * @author Brian Goetz and Tim Peierls
  */
 @ThreadSafe
-public class SemaphoreBoundedBuffer <E> {
+public class SemaphoreBoundedBuffer <E> implements BlockingBuffer<E> {
     private final Semaphore availableItems, availableSpaces;
     @GuardedBy("this") private final E[] items;
     @GuardedBy("this") private int putPosition = 0, takePosition = 0;
@@ -46,6 +47,74 @@ public class SemaphoreBoundedBuffer <E> {
         return item;
     }
 
+    // BLOCKS-UNTIL: not-full, as often as it takes to put all of them
+    public void putAll(E[] src, int off, int len) throws InterruptedException {
+        while (len > 0) {
+            int n = acquireUpTo(availableSpaces, len);
+            doInsertAll(src, off, n);
+            availableItems.release(n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // BLOCKS-UNTIL: not-empty
+    public int takeBatch(E[] dst) throws InterruptedException {
+        if (dst.length == 0)
+            return 0;
+        int n = acquireUpTo(availableItems, dst.length);
+        doExtractAll(dst, n);
+        availableSpaces.release(n);
+        return n;
+    }
+
+    public int drainTo(Collection<? super E> c, int max) {
+        if (max <= 0)
+            return 0;
+        int n = availableItems.drainPermits();
+        if (n > max) {
+            availableItems.release(n - max);
+            n = max;
+        }
+        if (n == 0)
+            return 0;
+        int drained = 0;
+        try {
+            synchronized (this) {
+                // Removed only once c has accepted it, so that an item c
+                // rejects stays in the buffer
+                for (; drained < n; drained++) {
+                    c.add(items[takePosition]);
+                    doExtract();
+                }
+            }
+        } finally {
+            availableItems.release(n - drained);
+            availableSpaces.release(drained);
+        }
+        return n;
+    }
+
+    // Blocks for one permit, then takes as many more as are free, up to max in all
+    private static int acquireUpTo(Semaphore s, int max) throws InterruptedException {
+        s.acquire();
+        int n = 1;
+        int more = Math.min(max - 1, s.availablePermits());
+        if (more > 0 && s.tryAcquire(more))
+            n += more;
+        return n;
+    }
+
+    private synchronized void doInsertAll(E[] src, int off, int n) {
+        for (int i = 0; i < n; i++)
+            doInsert(src[off + i]);
+    }
+
+    private synchronized void doExtractAll(E[] dst, int n) {
+        for (int i = 0; i < n; i++)
+            dst[i] = doExtract();
+    }
+
     private synchronized void doInsert(E x) {
         int i = putPosition;
         items[i] = x;
@@ -0,0 +1,22 @@
+package net.jcip.examples;
+
+import java.nio.ByteBuffer;
+
+/**
+ * SlotCodec
+ * <p/>
+ * Encoding of items into, and out of, the slots of an OffHeapBoundedBuffer
+ */
+public interface SlotCodec <T> {
+    /**
+     * Writes item into slot, which is positioned at zero with the slot size
+     * as its limit; the slot's position afterwards is the payload length.
+     */
+    void encode(T item, ByteBuffer slot);
+
+    /**
+     * Reads an item from slot, a read-only view of exactly the payload that
+     * encode wrote. The view is only valid during this call.
+     */
+    T decode(ByteBuffer slot);
+}
@@ -0,0 +1,318 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import net.jcip.annotations.*;
+
+/**
+ * SpatialGrid
+ * <p/>
+ * Concurrent uniform grid index over moving points, answering range and nearest-neighbour queries
+ * <p/>
+ * The plane is cut into square cells of cellSize, each holding the items
+ * positioned in it; cells are created as items reach them, found through a
+ * ConcurrentLongObjectMap keyed by cell coordinates, and never removed. A
+ * cell's contents are guarded by one of a fixed set of striped locks, so
+ * updates in different parts of the plane rarely contend. Moving an item
+ * within its cell takes one stripe; moving it to another cell takes both
+ * stripes, in stripe order, so that the item is never seen in both cells
+ * or in neither. Updates to the same item are serialized by the item's own
+ * entry, which is locked before any stripe.
+ * <p/>
+ * Queries visit only the cells that overlap the area asked about, locking
+ * one stripe at a time, so they see each cell as of some moment during the
+ * query rather than the whole grid at once; an item that changes cells
+ * while a query runs may be reported at either position, at both, or not
+ * at all.
+ */
+@ThreadSafe
+public class SpatialGrid <E> {
+    private final int cellSize;
+    private final Object[] stripes;
+    private final ConcurrentLongObjectMap<Cell<E>> cells = new ConcurrentLongObjectMap<Cell<E>>(1024);
+    private final ConcurrentHashMap<E, Member<E>> members = new ConcurrentHashMap<E, Member<E>>();
+    // Every cell, for queries covering more of the plane than there are cells
+    private final Queue<Cell<E>> allCells = new ConcurrentLinkedQueue<Cell<E>>();
+    private final AtomicInteger cellCount = new AtomicInteger();
+
+    /** An item's entry; it is in at most one cell, and its position is guarded by that cell's stripe */
+    private static class Member <E> {
+        final E item;
+        int x, y;
+        int slot; // index in its cell's array
+        @GuardedBy("this") Cell<E> cell; // null until placed
+        @GuardedBy("this") boolean removed;
+
+        Member(E item) {
+            this.item = item;
+        }
+    }
+
+    private static class Cell <E> {
+        final int x, y; // in cells
+        final int stripe;
+        @SuppressWarnings("unchecked")
+        Member<E>[] members = (Member<E>[]) new Member<?>[4]; // guarded by the stripe, as is size
+        int size;
+
+        Cell(int x, int y, int stripe) {
+            this.x = x;
+            this.y = y;
+            this.stripe = stripe;
+        }
+
+        void add(Member<E> m) {
+            if (size == members.length)
+                members = Arrays.copyOf(members, size * 2);
+            m.slot = size;
+            members[size++] = m;
+        }
+
+        void remove(Member<E> m) {
+            Member<E> last = members[--size];
+            members[m.slot] = last;
+            last.slot = m.slot;
+            members[size] = null;
+        }
+    }
+
+    public SpatialGrid(int cellSize) {
+        this(cellSize, 64 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * cellSize is best set to about the radius of a typical query; numStripes
+     * is rounded up to a power of two.
+     */
+    public SpatialGrid(int cellSize, int numStripes) {
+        if (cellSize <= 0 || numStripes <= 0 || numStripes > 1 << 16)
+            throw new IllegalArgumentException();
+        this.cellSize = cellSize;
+        int n = Integer.highestOneBit(numStripes);
+        stripes = new Object[(n < numStripes) ? n << 1 : n];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Object();
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private Cell<E> cell(int cellX, int cellY) {
+        return cells.get(cellKey(cellX, cellY));
+    }
+
+    private Cell<E> cellOrCreate(int cellX, int cellY) {
+        long key = cellKey(cellX, cellY);
+        Cell<E> cell = cells.get(key);
+        if (cell != null)
+            return cell;
+        long h = key * 0x9E3779B97F4A7C15L;
+        cell = new Cell<E>(cellX, cellY, (int) (h >>> 32) & (stripes.length - 1));
+        Cell<E> existing = cells.putIfAbsent(key, cell);
+        if (existing != null)
+            return existing;
+        allCells.add(cell);
+        cellCount.incrementAndGet();
+        return cell;
+    }
+
+    /** Adds item at (x, y), or moves it there if already present */
+    public void put(E item, int x, int y) {
+        if (item == null)
+            throw new NullPointerException();
+        Cell<E> to = cellOrCreate(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize));
+        while (true) {
+            Member<E> m = members.computeIfAbsent(item, new Function<E, Member<E>>() {
+                public Member<E> apply(E item) {
+                    return new Member<E>(item);
+                }
+            });
+            synchronized (m) {
+                if (m.removed)
+                    continue; // removed after we found it; start again with a new entry
+                Cell<E> from = m.cell;
+                if (from == null || from == to) {
+                    synchronized (stripes[to.stripe]) {
+                        if (from == null)
+                            to.add(m);
+                        m.x = x;
+                        m.y = y;
+                    }
+                } else {
+                    Object first = stripes[Math.min(from.stripe, to.stripe)];
+                    Object second = stripes[Math.max(from.stripe, to.stripe)];
+                    synchronized (first) {
+                        synchronized (second) {
+                            from.remove(m);
+                            to.add(m);
+                            m.x = x;
+                            m.y = y;
+                        }
+                    }
+                }
+                m.cell = to;
+                return;
+            }
+        }
+    }
+
+    public boolean remove(E item) {
+        Member<E> m = members.get(item);
+        if (m == null)
+            return false;
+        synchronized (m) {
+            if (m.removed)
+                return false;
+            m.removed = true;
+            members.remove(item, m);
+            if (m.cell != null) {
+                synchronized (stripes[m.cell.stripe]) {
+                    m.cell.remove(m);
+                }
+            }
+            return true;
+        }
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**
+     * Returns the cells from (fromX, fromY) to (toX, toY), in cells: looked
+     * up one by one, or, if the area spans more cells than exist, picked
+     * out of all the cells, so that a sparse grid is not walked cell by cell.
+     */
+    private List<Cell<E>> cellsIn(long fromX, long fromY, long toX, long toY) {
+        List<Cell<E>> result = new ArrayList<Cell<E>>();
+        if (fromX > toX || fromY > toY)
+            return result;
+        double area = (double) (toX - fromX + 1) * (toY - fromY + 1);
+        if (area > cellCount.get()) {
+            for (Cell<E> cell : allCells)
+                if (cell.x >= fromX && cell.x <= toX && cell.y >= fromY && cell.y <= toY)
+                    result.add(cell);
+            return result;
+        }
+        for (long cx = fromX; cx <= toX; cx++) {
+            for (long cy = fromY; cy <= toY; cy++) {
+                Cell<E> cell = cell((int) cx, (int) cy);
+                if (cell != null)
+                    result.add(cell);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the items whose positions lie in the box, edges included */
+    public List<E> withinBox(int minX, int minY, int maxX, int maxY) {
+        List<E> result = new ArrayList<E>();
+        for (Cell<E> cell : cellsIn(Math.floorDiv(minX, cellSize), Math.floorDiv(minY, cellSize),
+                                    Math.floorDiv(maxX, cellSize), Math.floorDiv(maxY, cellSize))) {
+            synchronized (stripes[cell.stripe]) {
+                for (int i = 0; i < cell.size; i++) {
+                    Member<E> m = cell.members[i];
+                    if (m.x >= minX && m.x <= maxX && m.y >= minY && m.y <= maxY)
+                        result.add(m.item);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the items within radius of (x, y) */
+    public List<E> withinRadius(int x, int y, int radius) {
+        if (radius < 0)
+            throw new IllegalArgumentException();
+        long r2 = (long) radius * radius;
+        List<E> result = new ArrayList<E>();
+        for (Cell<E> cell : cellsIn(Math.floorDiv((long) x - radius, cellSize), Math.floorDiv((long) y - radius, cellSize),
+                                    Math.floorDiv((long) x + radius, cellSize), Math.floorDiv((long) y + radius, cellSize))) {
+            synchronized (stripes[cell.stripe]) {
+                for (int i = 0; i < cell.size; i++) {
+                    Member<E> m = cell.members[i];
+                    if (distanceSquared(m.x, m.y, x, y) <= r2)
+                        result.add(m.item);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static long distanceSquared(int x1, int y1, int x2, int y2) {
+        long dx = (long) x1 - x2, dy = (long) y1 - y2;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the k items nearest (x, y), nearest first. Searches rings of
+     * cells outward from the one holding (x, y), stopping once k items are
+     * found and no cell in the next ring can hold a nearer one; once a ring
+     * would span more cells than exist, the remaining cells are all searched
+     * instead.
+     */
+    public List<E> nearest(int x, int y, int k) {
+        if (k <= 0)
+            throw new IllegalArgumentException();
+        int cx = Math.floorDiv(x, cellSize), cy = Math.floorDiv(y, cellSize);
+        // The k nearest so far, farthest at the head, each {distance squared, index in found}
+        PriorityQueue<long[]> best = new PriorityQueue<long[]>(k + 1, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Long.compare(b[0], a[0]);
+            }
+        });
+        List<E> found = new ArrayList<E>();
+        for (long ring = 0; ; ring++) {
+            if (8 * ring > cellCount.get()) {
+                // Cheaper to search every cell outside the rings already searched
+                for (Cell<E> cell : allCells)
+                    if (Math.max(Math.abs((long) cell.x - cx), Math.abs((long) cell.y - cy)) >= ring)
+                        search(cell, x, y, k, best, found);
+                break;
+            }
+            for (long i = cx - ring; i <= cx + ring; i++) {
+                boolean edge = (i == cx - ring || i == cx + ring);
+                for (long j = cy - ring; j <= cy + ring; j += edge ? 1 : 2 * ring) {
+                    if (i < Integer.MIN_VALUE || i > Integer.MAX_VALUE || j < Integer.MIN_VALUE || j > Integer.MAX_VALUE)
+                        continue;
+                    Cell<E> cell = cell((int) i, (int) j);
+                    if (cell != null)
+                        search(cell, x, y, k, best, found);
+                }
+            }
+            // Every cell in the next ring is at least ring cells' width away
+            long bound = ring * cellSize;
+            if (best.size() == k && best.peek()[0] <= bound * bound)
+                break;
+        }
+        long[][] sorted = best.toArray(new long[best.size()][]);
+        Arrays.sort(sorted, new Comparator<long[]>() {
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        List<E> result = new ArrayList<E>(sorted.length);
+        for (long[] s : sorted)
+            result.add(found.get((int) s[1]));
+        return result;
+    }
+
+    private void search(Cell<E> cell, int x, int y, int k, PriorityQueue<long[]> best, List<E> found) {
+        synchronized (stripes[cell.stripe]) {
+            for (int n = 0; n < cell.size; n++) {
+                Member<E> m = cell.members[n];
+                long d = distanceSquared(m.x, m.y, x, y);
+                if (best.size() < k || d < best.peek()[0]) {
+                    best.add(new long[]{d, found.size()});
+                    found.add(m.item);
+                    if (best.size() > k)
+                        best.poll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import net.jcip.annotations.*;
+
+/**
+ * SpscBoundedQueue
+ * <p/>
+ * Bounded blocking queue for exactly one producer thread and one consumer thread
+ * <p/>
+ * The producer owns the tail position and the consumer the head position;
+ * each publishes its position with a lazySet (a release store, with no
+ * fence waiting for it to become visible) after writing or clearing a
+ * slot, and reading the other side's position is what makes that slot
+ * visible. Each side also keeps a private copy of the other side's
+ * position, and only rereads the real one when the copy says the queue is
+ * full (or empty), so in the steady state the two threads touch each
+ * other's cache lines about once per lap rather than once per item. The
+ * positions and their copies are padded so that the producer's and the
+ * consumer's fields never share a cache line.
+ * <p/>
+ * A blocking WaitStrategy only signals when it sees a waiter, so with one
+ * the positions are published with a volatile write instead: otherwise the
+ * signaller could read the waiter count before its store became visible,
+ * miss a waiter that registered in between, and leave it asleep.
+ * <p/>
+ * offer, add and put must only be called by the producer; poll, take, peek
+ * and drainTo only by the consumer. The iterator is weakly consistent and
+ * does not support removal.
+ */
+@ThreadSafe
+public class SpscBoundedQueue <E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final long MAX_TIMED_PARK_NANOS = 1L << 20; // ~1ms
+
+    private final int capacity;
+    private final int mask;
+    private final E[] buffer;
+    private final Cursor tail = new Cursor(); // cached: the head as last read by the producer
+    private final Cursor head = new Cursor(); // cached: the tail as last read by the consumer
+    private final WaitStrategy waitStrategy;
+    private final boolean fenced; // publish positions with set, not lazySet
+    private final BooleanSupplier notFull = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return remainingCapacity() > 0;
+        }
+    };
+    private final BooleanSupplier notEmpty = new BooleanSupplier() {
+        public boolean getAsBoolean() {
+            return !isEmpty();
+        }
+    };
+
+    public SpscBoundedQueue(int capacity) {
+        this(capacity, WaitStrategy.spinPark());
+    }
+
+    public SpscBoundedQueue(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30)
+            throw new IllegalArgumentException();
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity)
+            length <<= 1;
+        this.capacity = capacity;
+        this.mask = length - 1;
+        @SuppressWarnings("unchecked") E[] buffer = (E[]) new Object[length];
+        this.buffer = buffer;
+        this.waitStrategy = waitStrategy;
+        this.fenced = waitStrategy.signals();
+    }
+
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long t = tail.get();
+        if (t - tail.cached >= capacity) {
+            tail.cached = head.get();
+            if (t - tail.cached >= capacity)
+                return false;
+        }
+        buffer[(int) t & mask] = e;
+        publish(tail, t + 1);
+        return true;
+    }
+
+    public E poll() {
+        long h = head.get();
+        if (h >= head.cached) {
+            head.cached = tail.get();
+            if (h >= head.cached)
+                return null;
+        }
+        int i = (int) h & mask;
+        E e = buffer[i];
+        buffer[i] = null;
+        publish(head, h + 1);
+        return e;
+    }
+
+    private void publish(Cursor position, long p) {
+        if (fenced)
+            position.set(p);
+        else
+            position.lazySet(p);
+        waitStrategy.signalAll();
+    }
+
+    public E peek() {
+        long h = head.get();
+        return (h < tail.get()) ? buffer[(int) h & mask] : null;
+    }
+
+    public void put(E e) throws InterruptedException {
+        for (int round = 0; !offer(e); round++)
+            waitStrategy.await(round, notFull);
+    }
+
+    public E take() throws InterruptedException {
+        E e;
+        for (int round = 0; (e = poll()) == null; round++)
+            waitStrategy.await(round, notEmpty);
+        return e;
+    }
+
+    // The wait strategy cannot time out, so timed waits park in short steps instead
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (long park = 1024; !offer(e); park = Math.min(park * 2, MAX_TIMED_PARK_NANOS))
+            if (!parkUntil(deadline, park))
+                return false;
+        return true;
+    }
+
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (long park = 1024; (e = poll()) == null; park = Math.min(park * 2, MAX_TIMED_PARK_NANOS))
+            if (!parkUntil(deadline, park))
+                return null;
+        return e;
+    }
+
+    private static boolean parkUntil(long deadline, long park) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0)
+            return false;
+        LockSupport.parkNanos(Math.min(park, remaining));
+        return true;
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == this)
+            throw new IllegalArgumentException();
+        int n = 0;
+        E e;
+        while (n < maxElements && (e = poll()) != null) {
+            c.add(e);
+            n++;
+        }
+        return n;
+    }
+
+    public int size() {
+        while (true) {
+            long h = head.get();
+            long t = tail.get();
+            if (h == head.get())
+                return (int) Math.max(0, Math.min(t - h, capacity));
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<>();
+        for (long p = head.get(), t = tail.get(); p < t; p++) {
+            E e = buffer[(int) p & mask];
+            if (e != null) // taken since we read the head
+                snapshot.add(e);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /** A position, and the other side's position as last read, alone on their cache line */
+    private static final class Cursor extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        long cached;
+        long p1, p2, p3, p4, p5, p6;
+    }
+}
@@ -0,0 +1,188 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+
+import net.jcip.annotations.*;
+
+/**
+ * StampedReadWriteMap
+ * <p/>
+ * Wrapping a Map with a StampedLock, reading optimistically
+ * <p/>
+ * ReadWriteMap's readers each take the read lock, and under a read-mostly
+ * load the CAS on the lock's reader count becomes the hot spot. Here, with
+ * optimisticReads, a reader takes no lock at all: it reads the map under
+ * an optimistic stamp and then validates it, which costs only a volatile
+ * read; if a write got in meanwhile, it reads again under the read lock.
+ * That lets readers run alongside a writer, so the wrapped map must
+ * tolerate racy reads: a read that overlaps a write may see the map in any
+ * state (and is thrown away), so it must neither loop forever nor have side
+ * effects. HashMap will do; an access-ordered LinkedHashMap, whose get
+ * reorders entries, will not. Without optimisticReads every read takes the
+ * read lock, as in ReadWriteMap.
+ */
+@ThreadSafe
+public class StampedReadWriteMap <K, V> {
+    @GuardedBy("lock") private final Map<K, V> map;
+    private final StampedLock lock = new StampedLock();
+    private final boolean optimisticReads;
+
+    public StampedReadWriteMap(Map<K, V> map) {
+        this(map, true);
+    }
+
+    public StampedReadWriteMap(Map<K, V> map, boolean optimisticReads) {
+        this.map = map;
+        this.optimisticReads = optimisticReads;
+    }
+
+    public V put(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            return map.put(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(Object key) {
+        long stamp = lock.writeLock();
+        try {
+            return map.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void putAll(Map<? extends K, ? extends V> m) {
+        long stamp = lock.writeLock();
+        try {
+            map.putAll(m);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            map.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Each read below tries once without the lock; an exception thrown by a
+    // read that raced a write is dropped, and is thrown again by the locked
+    // read if it was real
+
+    public V get(Object key) {
+        long stamp = optimisticReads ? lock.tryOptimisticRead() : 0;
+        if (stamp != 0) {
+            try {
+                V value = map.get(key);
+                if (lock.validate(stamp))
+                    return value;
+            } catch (RuntimeException raced) {
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return map.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the entries for those of keys that are present, all read as
+     * of one moment, under a single stamp.
+     */
+    public Map<K, V> getAll(Collection<? extends K> keys) {
+        Map<K, V> result = new HashMap<K, V>();
+        long stamp = optimisticReads ? lock.tryOptimisticRead() : 0;
+        if (stamp != 0) {
+            try {
+                getAll(keys, result);
+                if (lock.validate(stamp))
+                    return result;
+            } catch (RuntimeException raced) {
+            }
+            result.clear();
+        }
+        stamp = lock.readLock();
+        try {
+            getAll(keys, result);
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private void getAll(Collection<? extends K> keys, Map<K, V> result) {
+        for (K key : keys) {
+            V value = map.get(key);
+            if (value != null || map.containsKey(key))
+                result.put(key, value);
+        }
+    }
+
+    public int size() {
+        long stamp = optimisticReads ? lock.tryOptimisticRead() : 0;
+        if (stamp != 0) {
+            try {
+                int size = map.size();
+                if (lock.validate(stamp))
+                    return size;
+            } catch (RuntimeException raced) {
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(Object key) {
+        long stamp = optimisticReads ? lock.tryOptimisticRead() : 0;
+        if (stamp != 0) {
+            try {
+                boolean contains = map.containsKey(key);
+                if (lock.validate(stamp))
+                    return contains;
+            } catch (RuntimeException raced) {
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return map.containsKey(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsValue(Object value) {
+        long stamp = optimisticReads ? lock.tryOptimisticRead() : 0;
+        if (stamp != 0) {
+            try {
+                boolean contains = map.containsValue(value);
+                if (lock.validate(stamp))
+                    return contains;
+            } catch (RuntimeException raced) {
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return map.containsValue(value);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
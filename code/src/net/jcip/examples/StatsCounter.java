@@ -0,0 +1,104 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jcip.annotations.*;
+
+/**
+ * StatsCounter
+ * <p/>
+ * Records cache statistics without contention
+ * <p/>
+ * Every counter is a LongAdder, which spreads concurrent updates over
+ * striped cells, so recording from the hot path never serializes callers
+ * the way counting under the cache's own lock does. A snapshot sums the
+ * cells; it is not atomic across counters, which is fine for monitoring.
+ */
+@ThreadSafe
+public class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder inFlightCount = new LongAdder();
+
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    public void recordEviction() {
+        evictionCount.increment();
+    }
+
+    /** Marks the start of a load; returns the start time to pass to the matching record call */
+    public long recordLoadStart() {
+        inFlightCount.increment();
+        return System.nanoTime();
+    }
+
+    public void recordLoadSuccess(long startTime) {
+        totalLoadTime.add(System.nanoTime() - startTime);
+        loadSuccessCount.increment();
+        inFlightCount.decrement();
+    }
+
+    public void recordLoadFailure(long startTime) {
+        totalLoadTime.add(System.nanoTime() - startTime);
+        loadFailureCount.increment();
+        inFlightCount.decrement();
+    }
+
+    public CacheStats snapshot() {
+        return new CacheStats(hitCount.sum(), missCount.sum(),
+                loadSuccessCount.sum(), loadFailureCount.sum(),
+                totalLoadTime.sum(), evictionCount.sum(),
+                Math.max(0, inFlightCount.sum()));
+    }
+
+    /** Returns a Computable that records every call to c as a load */
+    public <A, V> Computable<A, V> instrument(final Computable<A, V> c) {
+        return new Computable<A, V>() {
+            public V compute(A arg) throws InterruptedException {
+                long start = recordLoadStart();
+                boolean succeeded = false;
+                try {
+                    V result = c.compute(arg);
+                    succeeded = true;
+                    return result;
+                } finally {
+                    if (succeeded)
+                        recordLoadSuccess(start);
+                    else
+                        recordLoadFailure(start);
+                }
+            }
+        };
+    }
+
+    /** Returns a BulkComputable that records every call to bulk as a single load */
+    public <A, V> BulkComputable<A, V> instrumentBulk(final BulkComputable<A, V> bulk) {
+        return new BulkComputable<A, V>() {
+            public Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException {
+                long start = recordLoadStart();
+                boolean succeeded = false;
+                try {
+                    Map<A, V> result = bulk.computeAll(args);
+                    succeeded = true;
+                    return result;
+                } finally {
+                    if (succeeded)
+                        recordLoadSuccess(start);
+                    else
+                        recordLoadFailure(start);
+                }
+            }
+        };
+    }
+}
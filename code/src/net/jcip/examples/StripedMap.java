@@ -1,53 +1,354 @@
 package net.jcip.examples;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+
 import net.jcip.annotations.*;
 
 /**
  * StripedMap
  * <p/>
  * Hash-based map using lock striping
+ * <p/>
+ * Each stripe owns its own bucket table, so a stripe grows on its own,
+ * under its own lock, when its share of the entries outgrows the table,
+ * while the other stripes carry on; the map as a whole is never locked.
+ * Readers take no locks: they read a stripe's table through a volatile
+ * field and its buckets through an AtomicReferenceArray, and writers only
+ * ever publish nodes that are fully built. A resize copies the stripe's
+ * nodes into a new table and then publishes it, so a reader still walking
+ * the old table sees a consistent, if slightly stale, stripe.
+ * <p/>
+ * The stripe count is fixed at construction, by default four per core.
+ * Null keys and values are not allowed; iterators are weakly consistent
+ * and size is an estimate while the map is being updated.
  *
  * @author Brian Goetz and Tim Peierls
  */
 @ThreadSafe
-public class StripedMap {
-    // Synchronization policy: buckets[n] guarded by locks[n%N_LOCKS]
-    private static final int N_LOCKS = 16;
-    private final Node[] buckets;
-    private final Object[] locks;
+public class StripedMap <K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+    // Synchronization policy: each stripe's table, buckets and count are
+    // guarded by the stripe for writing; reads need no lock
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MAX_TABLE = 1 << 30;
+    private final Stripe<K, V>[] stripes;
+    private final int stripeBits;
 
-    private static class Node {
-        Node next;
-        Object key;
-        Object value;
+    private static class Node <K, V> {
+        final int hash;
+        final K key;
+        volatile V value;
+        volatile Node<K, V> next;
+
+        Node(int hash, K key, V value, Node<K, V> next) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    private static class Stripe <K, V> {
+        volatile AtomicReferenceArray<Node<K, V>> table;
+        volatile int count; // written only under the stripe's lock
+
+        Stripe(int tableSize) {
+            table = new AtomicReferenceArray<Node<K, V>>(tableSize);
+        }
     }
 
     public StripedMap(int numBuckets) {
-        buckets = new Node[numBuckets];
-        locks = new Object[N_LOCKS];
-        for (int i = 0; i < N_LOCKS; i++)
-            locks[i] = new Object();
+        this(numBuckets, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /** numStripes is rounded up to a power of two */
+    public StripedMap(int numBuckets, int numStripes) {
+        if (numBuckets <= 0 || numStripes <= 0 || numStripes > 1 << 16)
+            throw new IllegalArgumentException();
+        int n = ceilingPowerOfTwo(numStripes);
+        stripeBits = Integer.numberOfTrailingZeros(n);
+        int tableSize = ceilingPowerOfTwo(Math.max(2, (numBuckets + n - 1) / n));
+        @SuppressWarnings("unchecked") Stripe<K, V>[] stripes = (Stripe<K, V>[]) new Stripe<?, ?>[n];
+        this.stripes = stripes;
+        for (int i = 0; i < n; i++)
+            stripes[i] = new Stripe<K, V>(tableSize);
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        int p = Integer.highestOneBit(n);
+        return (p < n) ? Math.min(p << 1, MAX_TABLE) : p;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // The low bits of the hash pick the stripe, and the bits above them the bucket
+    private Stripe<K, V> stripeFor(int hash) {
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private int indexFor(int hash, int tableSize) {
+        return (hash >>> stripeBits) & (tableSize - 1);
+    }
+
+    public V get(Object key) {
+        int hash = hash(key);
+        AtomicReferenceArray<Node<K, V>> table = stripeFor(hash).table;
+        for (Node<K, V> m = table.get(indexFor(hash, table.length())); m != null; m = m.next)
+            if (m.hash == hash && m.key.equals(key))
+                return m.value;
+        return null;
+    }
+
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    public V put(K key, V value) {
+        return put(key, value, false);
     }
 
-    private final int hash(Object key) {
-        return Math.abs(key.hashCode() % buckets.length);
+    public V putIfAbsent(K key, V value) {
+        return put(key, value, true);
     }
 
-    public Object get(Object key) {
+    private V put(K key, V value, boolean onlyIfAbsent) {
+        if (value == null)
+            throw new NullPointerException();
         int hash = hash(key);
-        synchronized (locks[hash % N_LOCKS]) {
-            for (Node m = buckets[hash]; m != null; m = m.next)
-                if (m.key.equals(key))
-                    return m.value;
+        Stripe<K, V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            AtomicReferenceArray<Node<K, V>> table = stripe.table;
+            int i = indexFor(hash, table.length());
+            for (Node<K, V> m = table.get(i); m != null; m = m.next) {
+                if (m.hash == hash && m.key.equals(key)) {
+                    V old = m.value;
+                    if (!onlyIfAbsent)
+                        m.value = value;
+                    return old;
+                }
+            }
+            insert(stripe, table, i, hash, key, value);
+            return null;
         }
+    }
+
+    public V remove(Object key) {
+        return remove(key, null, false);
+    }
+
+    public boolean remove(Object key, Object value) {
+        return value != null && remove(key, value, true) != null;
+    }
+
+    /** Removes key's entry, if present (and mapped to value, if matchValue); returns its value */
+    private V remove(Object key, Object value, boolean matchValue) {
+        int hash = hash(key);
+        Stripe<K, V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            AtomicReferenceArray<Node<K, V>> table = stripe.table;
+            int i = indexFor(hash, table.length());
+            for (Node<K, V> prev = null, m = table.get(i); m != null; prev = m, m = m.next) {
+                if (m.hash == hash && m.key.equals(key)) {
+                    V old = m.value;
+                    if (matchValue && !old.equals(value))
+                        return null;
+                    unlink(stripe, table, i, prev, m);
+                    return old;
+                }
+            }
+            return null;
+        }
+    }
+
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (oldValue == null || newValue == null)
+            throw new NullPointerException();
+        int hash = hash(key);
+        Stripe<K, V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            Node<K, V> m = find(stripe.table, hash, key);
+            if (m == null || !m.value.equals(oldValue))
+                return false;
+            m.value = newValue;
+            return true;
+        }
+    }
+
+    public V replace(K key, V value) {
+        if (value == null)
+            throw new NullPointerException();
+        int hash = hash(key);
+        Stripe<K, V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            Node<K, V> m = find(stripe.table, hash, key);
+            if (m == null)
+                return null;
+            V old = m.value;
+            m.value = value;
+            return old;
+        }
+    }
+
+    /**
+     * Atomically replaces key's value with what remapping makes of it (null
+     * if absent), or removes key if that is null. remapping is called with
+     * the stripe locked, so it should be quick and must not use this map.
+     */
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        int hash = hash(key);
+        Stripe<K, V> stripe = stripeFor(hash);
+        synchronized (stripe) {
+            AtomicReferenceArray<Node<K, V>> table = stripe.table;
+            int i = indexFor(hash, table.length());
+            Node<K, V> prev = null, m = table.get(i);
+            while (m != null && !(m.hash == hash && m.key.equals(key))) {
+                prev = m;
+                m = m.next;
+            }
+            V value = remapping.apply(key, (m == null) ? null : m.value);
+            if (value == null) {
+                if (m != null)
+                    unlink(stripe, table, i, prev, m);
+            } else if (m != null) {
+                m.value = value;
+            } else {
+                insert(stripe, table, i, hash, key, value);
+            }
+            return value;
+        }
+    }
+
+    private Node<K, V> find(AtomicReferenceArray<Node<K, V>> table, int hash, Object key) {
+        for (Node<K, V> m = table.get(indexFor(hash, table.length())); m != null; m = m.next)
+            if (m.hash == hash && m.key.equals(key))
+                return m;
         return null;
     }
 
+    @GuardedBy("stripe")
+    private void insert(Stripe<K, V> stripe, AtomicReferenceArray<Node<K, V>> table,
+                        int i, int hash, K key, V value) {
+        // The node is complete before the volatile store publishes it
+        table.set(i, new Node<K, V>(hash, key, value, table.get(i)));
+        int count = stripe.count + 1;
+        stripe.count = count;
+        if (count > table.length() * LOAD_FACTOR && table.length() < MAX_TABLE)
+            resize(stripe, table);
+    }
+
+    @GuardedBy("stripe")
+    private void unlink(Stripe<K, V> stripe, AtomicReferenceArray<Node<K, V>> table,
+                        int i, Node<K, V> prev, Node<K, V> m) {
+        // A reader standing on m still finds its way on through m.next
+        if (prev == null)
+            table.set(i, m.next);
+        else
+            prev.next = m.next;
+        stripe.count = stripe.count - 1;
+    }
+
+    /** Doubles one stripe's table; readers of the old one are undisturbed, as its nodes are copied */
+    @GuardedBy("stripe")
+    private void resize(Stripe<K, V> stripe, AtomicReferenceArray<Node<K, V>> table) {
+        int size = table.length() * 2;
+        AtomicReferenceArray<Node<K, V>> resized = new AtomicReferenceArray<Node<K, V>>(size);
+        for (int i = 0; i < table.length(); i++) {
+            for (Node<K, V> m = table.get(i); m != null; m = m.next) {
+                int j = indexFor(m.hash, size);
+                resized.lazySet(j, new Node<K, V>(m.hash, m.key, m.value, resized.get(j)));
+            }
+        }
+        stripe.table = resized;
+    }
+
     public void clear() {
-        for (int i = 0; i < buckets.length; i++) {
-            synchronized (locks[i % N_LOCKS]) {
-                buckets[i] = null;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.table = new AtomicReferenceArray<Node<K, V>>(stripe.table.length());
+                stripe.count = 0;
             }
         }
     }
+
+    public int size() {
+        long n = 0;
+        for (Stripe<K, V> stripe : stripes)
+            n += stripe.count;
+        return (int) Math.min(n, Integer.MAX_VALUE);
+    }
+
+    public boolean isEmpty() {
+        for (Stripe<K, V> stripe : stripes)
+            if (stripe.count != 0)
+                return false;
+        return true;
+    }
+
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return StripedMap.this.size();
+            }
+        };
+    }
+
+    /** Walks each stripe's table as it was when the iterator reached the stripe */
+    private class EntryIterator implements Iterator<Entry<K, V>> {
+        private int nextStripe, nextBucket;
+        private AtomicReferenceArray<Node<K, V>> table;
+        private Node<K, V> next;
+        private Node<K, V> lastReturned;
+
+        EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if (next != null)
+                next = next.next;
+            while (next == null) {
+                if (table != null && nextBucket < table.length()) {
+                    next = table.get(nextBucket++);
+                } else if (nextStripe < stripes.length) {
+                    table = stripes[nextStripe++].table;
+                    nextBucket = 0;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public Entry<K, V> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            lastReturned = next;
+            advance();
+            return new SimpleEntry<K, V>(lastReturned.key, lastReturned.value) {
+                public V setValue(V value) {
+                    put(getKey(), value);
+                    return super.setValue(value);
+                }
+            };
+        }
+
+        public void remove() {
+            if (lastReturned == null)
+                throw new IllegalStateException();
+            StripedMap.this.remove(lastReturned.key);
+            lastReturned = null;
+        }
+    }
 }
@@ -0,0 +1,113 @@
+package net.jcip.examples;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * TestAsyncMemoizer
+ * <p/>
+ * Unit tests for AsyncMemoizer's sharing, failures and cancellation
+ */
+public class TestAsyncMemoizer extends TestCase {
+    private final AtomicInteger loads = new AtomicInteger();
+    private ExecutorService exec;
+
+    protected void setUp() {
+        exec = Executors.newSingleThreadExecutor();
+    }
+
+    protected void tearDown() throws InterruptedException {
+        exec.shutdownNow();
+        assertTrue(exec.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    /** Is interrupted on its first load, and returns the load's number after that */
+    private final Computable<String, Integer> interruptedOnce = new Computable<String, Integer>() {
+        public Integer compute(String arg) throws InterruptedException {
+            int n = loads.incrementAndGet();
+            if (n == 1)
+                throw new InterruptedException();
+            return n;
+        }
+    };
+
+    public void testCallersShareOneLoad() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AsyncMemoizer<String, Integer> m = new AsyncMemoizer<String, Integer>(
+                new Computable<String, Integer>() {
+                    public Integer compute(String arg) throws InterruptedException {
+                        release.await();
+                        return loads.incrementAndGet();
+                    }
+                }, exec);
+        CompletableFuture<Integer> first = m.computeAsync("a");
+        assertSame(first, m.computeAsync("a"));
+        release.countDown();
+        assertEquals(Integer.valueOf(1), first.get(1, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        assertEquals(1, loads.get());
+    }
+
+    public void testFailureIsCachedAndRethrown() throws InterruptedException {
+        AsyncMemoizer<String, Integer> m = new AsyncMemoizer<String, Integer>(
+                new Computable<String, Integer>() {
+                    public Integer compute(String arg) {
+                        loads.incrementAndGet();
+                        throw new IllegalArgumentException(arg);
+                    }
+                }, exec);
+        for (int i = 0; i < 2; i++) {
+            try {
+                m.compute("a");
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals(1, loads.get());
+    }
+
+    public void testInterruptedLoadIsNotCached() throws Exception {
+        AsyncMemoizer<String, Integer> m = new AsyncMemoizer<String, Integer>(interruptedOnce, exec);
+        CompletableFuture<Integer> interrupted = m.computeAsync("a");
+        try {
+            interrupted.get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (CancellationException expected) {
+        }
+        CompletableFuture<Integer> retried = m.computeAsync("a");
+        assertNotSame(interrupted, retried);
+        assertEquals(Integer.valueOf(2), retried.get(1, TimeUnit.SECONDS));
+    }
+
+    public void testComputeRetriesAfterInterruptedLoad() throws InterruptedException {
+        AsyncMemoizer<String, Integer> m = new AsyncMemoizer<String, Integer>(interruptedOnce, exec);
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(2, loads.get());
+    }
+
+    public void testCancelledFutureIsReplaced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        AsyncMemoizer<String, Integer> m = new AsyncMemoizer<String, Integer>(
+                new Computable<String, Integer>() {
+                    public Integer compute(String arg) throws InterruptedException {
+                        int n = loads.incrementAndGet();
+                        if (n == 1) {
+                            started.countDown();
+                            release.await();
+                        }
+                        return n;
+                    }
+                }, exec);
+        CompletableFuture<Integer> first = m.computeAsync("a");
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        first.cancel(false);
+        release.countDown();
+        CompletableFuture<Integer> second = m.computeAsync("a");
+        assertNotSame(first, second);
+        assertEquals(Integer.valueOf(2), second.get(1, TimeUnit.SECONDS));
+    }
+}
@@ -1,5 +1,9 @@
 package net.jcip.examples;
 
+import java.lang.management.*;
+import java.nio.ByteBuffer;
+import java.util.function.Function;
+
 import junit.framework.TestCase;
 
 /**
@@ -11,16 +15,18 @@ import junit.framework.TestCase;
  */
 public class TestBoundedBuffer extends TestCase {
     private static final long LOCKUP_DETECT_TIMEOUT = 1000;
-    private static final int CAPACITY = 10000;
+    // Enough Bigs (about 50 MB) that a leak would be far over THRESHOLD, few
+    // enough that a full buffer fits in a default heap
+    private static final int CAPACITY = 64;
     private static final int THRESHOLD = 10000;
 
-    void testIsEmptyWhenConstructed() {
+    public void testIsEmptyWhenConstructed() {
         SemaphoreBoundedBuffer<Integer> bb = new SemaphoreBoundedBuffer<Integer>(10);
         assertTrue(bb.isEmpty());
         assertFalse(bb.isFull());
     }
 
-    void testIsFullAfterPuts() throws InterruptedException {
+    public void testIsFullAfterPuts() throws InterruptedException {
         SemaphoreBoundedBuffer<Integer> bb = new SemaphoreBoundedBuffer<Integer>(10);
         for (int i = 0; i < 10; i++)
             bb.put(i);
@@ -29,7 +35,7 @@ public class TestBoundedBuffer extends TestCase {
     }
 
 
-    void testTakeBlocksWhenEmpty() {
+    public void testTakeBlocksWhenEmpty() {
         final SemaphoreBoundedBuffer<Integer> bb = new SemaphoreBoundedBuffer<Integer>(10);
         Thread taker = new Thread() {
             public void run() {
@@ -55,7 +61,7 @@ public class TestBoundedBuffer extends TestCase {
         double[] data = new double[100000];
     }
 
-    void testLeak() throws InterruptedException {
+    public void testLeak() throws InterruptedException {
         SemaphoreBoundedBuffer<Big> bb = new SemaphoreBoundedBuffer<Big>(CAPACITY);
         int heapSize1 = snapshotHeap();
         for (int i = 0; i < CAPACITY; i++)
@@ -66,9 +72,51 @@ public class TestBoundedBuffer extends TestCase {
         assertTrue(Math.abs(heapSize1 - heapSize2) < THRESHOLD);
     }
 
+    // Payloads stay in the buffer's off-heap slots, so even a full buffer
+    // leaves the heap where it was
+    public void testOffHeapLeak() throws InterruptedException {
+        OffHeapBoundedBuffer<Big> bb = new OffHeapBoundedBuffer<Big>(
+                CAPACITY, new Big().data.length * 8, new SlotCodec<Big>() {
+            public void encode(Big item, ByteBuffer slot) {
+                slot.asDoubleBuffer().put(item.data);
+                slot.position(item.data.length * 8);
+            }
+
+            public Big decode(ByteBuffer slot) {
+                Big big = new Big();
+                slot.asDoubleBuffer().get(big.data);
+                return big;
+            }
+        });
+        Function<ByteBuffer, Double> firstValue = new Function<ByteBuffer, Double>() {
+            public Double apply(ByteBuffer slot) {
+                return slot.getDouble(0);
+            }
+        };
+        int heapSize1 = snapshotHeap();
+        for (int i = 0; i < CAPACITY; i++)
+            bb.put(new Big());
+        int heapSizeFull = snapshotHeap();
+        for (int i = 0; i < CAPACITY; i++)
+            bb.takeInPlace(firstValue);
+        int heapSize2 = snapshotHeap();
+        assertTrue(Math.abs(heapSize1 - heapSizeFull) < THRESHOLD);
+        assertTrue(Math.abs(heapSize1 - heapSize2) < THRESHOLD);
+    }
+
+    /* Snapshot heap and return heap size, in KB */
     private int snapshotHeap() {
-        /* Snapshot heap and return heap size */
-        return 0;
+        // Collect until the used heap stops shrinking
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            memory.gc();
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used)
+                break;
+            used = now;
+        }
+        return (int) (used / 1024);
     }
 
 }
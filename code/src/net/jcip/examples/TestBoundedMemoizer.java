@@ -0,0 +1,107 @@
+package net.jcip.examples;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * TestBoundedMemoizer
+ * <p/>
+ * Unit tests for BoundedMemoizer's bound, admission and eviction
+ */
+public class TestBoundedMemoizer extends TestCase {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final Computable<Integer, String> decimal = new Computable<Integer, String>() {
+        public String compute(Integer arg) {
+            loads.incrementAndGet();
+            if (arg < 0)
+                throw new IllegalArgumentException();
+            return arg.toString();
+        }
+    };
+
+    public void testStaysWithinMaximumSize() throws InterruptedException {
+        BoundedMemoizer<Integer, String> m = new BoundedMemoizer<Integer, String>(decimal, 100);
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.toString(i), m.compute(i));
+        assertEquals(100, m.weightedSize());
+        assertEquals(100, m.size());
+        assertEquals(900, m.stats().evictionCount());
+    }
+
+    public void testFrequentlyUsedEntriesSurviveAScan() throws InterruptedException {
+        BoundedMemoizer<Integer, String> m = new BoundedMemoizer<Integer, String>(decimal, 100);
+        for (int i = 0; i < 50; i++)
+            m.compute(i);
+        m.compute(999); // pushes the last of them out of the one-entry window
+        // Hits on probation promote them all to the protected segment
+        for (int n = 0; n < 4; n++)
+            for (int i = 0; i < 50; i++)
+                m.compute(i);
+        assertEquals(51, loads.get());
+        for (int i = 1000; i < 3000; i++)
+            m.compute(i);
+        loads.set(0);
+        for (int i = 0; i < 50; i++)
+            m.compute(i);
+        assertEquals(0, loads.get());
+    }
+
+    public void testOneHitCandidateLosesToPopularVictim() throws InterruptedException {
+        // No window and no room to protect, so every entry lands on probation
+        BoundedMemoizer<Integer, String> m = new BoundedMemoizer<Integer, String>(decimal, 1);
+        for (int n = 0; n < 5; n++)
+            m.compute(0);
+        m.compute(1);
+        loads.set(0);
+        m.compute(0);
+        assertEquals(0, loads.get());
+        m.compute(1);
+        assertEquals(1, loads.get());
+    }
+
+    public void testPopularCandidateIsAdmitted() throws InterruptedException {
+        BoundedMemoizer<Integer, String> m = new BoundedMemoizer<Integer, String>(decimal, 1);
+        m.compute(0);
+        // Each load of 1 raises its frequency until it beats 0's
+        for (int n = 0; n < 3; n++)
+            m.compute(1);
+        loads.set(0);
+        m.compute(1);
+        assertEquals(0, loads.get());
+        m.compute(0);
+        assertEquals(1, loads.get());
+    }
+
+    public void testEntryHeavierThanMaximumIsNotKept() throws InterruptedException {
+        BoundedMemoizer<Integer, String> m = new BoundedMemoizer<Integer, String>(decimal, 3,
+                new Weigher<Integer, String>() {
+                    public int weigh(Integer key, String value) {
+                        return value.length();
+                    }
+                });
+        assertEquals("1234", m.compute(1234));
+        assertEquals(0, m.size());
+        assertEquals(0, m.weightedSize());
+        assertEquals("12", m.compute(12));
+        assertEquals(2, m.weightedSize());
+    }
+
+    public void testFailuresAndInvalidatedEntriesAreRecomputed() throws InterruptedException {
+        BoundedMemoizer<Integer, String> m = new BoundedMemoizer<Integer, String>(decimal, 10);
+        for (int n = 0; n < 2; n++) {
+            try {
+                m.compute(-1);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals(2, loads.get());
+        m.compute(1);
+        m.invalidate(1);
+        assertEquals(0, m.weightedSize());
+        m.compute(1);
+        assertEquals(4, loads.get());
+    }
+}
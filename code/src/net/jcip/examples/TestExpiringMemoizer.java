@@ -0,0 +1,183 @@
+package net.jcip.examples;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * TestExpiringMemoizer
+ * <p/>
+ * Unit tests for ExpiringMemoizer's expiry and refresh-ahead
+ * <p/>
+ * Expiry is checked through compute, which never returns an expired entry,
+ * as the timer wheel only removes entries a wheel tick, about a second,
+ * after they expire.
+ */
+public class TestExpiringMemoizer extends TestCase {
+    private static final long SHORT = 100; // ms; comfortably longer than a compute
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AtomicInteger refreshes = new AtomicInteger();
+
+    /** Returns the number of the load that computed the value */
+    private final Computable<String, Integer> counting = new Computable<String, Integer>() {
+        public Integer compute(String arg) {
+            return loads.incrementAndGet();
+        }
+    };
+
+    /** Runs refreshes on the calling thread, so they are done when compute returns */
+    private final Executor refresher = new Executor() {
+        public void execute(Runnable r) {
+            refreshes.incrementAndGet();
+            r.run();
+        }
+    };
+
+    public void testExpiresAfterWrite() throws InterruptedException {
+        ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                counting, SHORT, 0, TimeUnit.MILLISECONDS);
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        Thread.sleep(SHORT * 2);
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(1, m.stats().evictionCount());
+    }
+
+    public void testReadsKeepAnEntryAlive() throws InterruptedException {
+        ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                counting, 0, SHORT, TimeUnit.MILLISECONDS);
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        for (int i = 0; i < 6; i++) {
+            Thread.sleep(SHORT / 4);
+            assertEquals(Integer.valueOf(1), m.compute("a"));
+        }
+        Thread.sleep(SHORT * 2);
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+    }
+
+    public void testRefreshServesOldValueThenNewOne() throws InterruptedException {
+        final CountDownLatch refreshing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Computable<String, Integer> slowRefresh = new Computable<String, Integer>() {
+            public Integer compute(String arg) throws InterruptedException {
+                int n = loads.incrementAndGet();
+                if (n == 2) {
+                    refreshing.countDown();
+                    release.await();
+                }
+                return n;
+            }
+        };
+        ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                    slowRefresh, 0, 0, SHORT, TimeUnit.MILLISECONDS, exec);
+            assertEquals(Integer.valueOf(1), m.compute("a"));
+            Thread.sleep(SHORT * 2);
+            assertEquals(Integer.valueOf(1), m.compute("a")); // starts the refresh
+            assertTrue(refreshing.await(1, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(1), m.compute("a")); // still the old value
+            release.countDown();
+            exec.shutdown();
+            assertTrue(exec.awaitTermination(1, TimeUnit.SECONDS));
+            assertEquals(Integer.valueOf(2), m.compute("a"));
+            assertEquals(2, loads.get());
+        } finally {
+            release.countDown();
+            exec.shutdownNow();
+        }
+    }
+
+    public void testFailedRefreshKeepsOldValue() throws InterruptedException {
+        Computable<String, Integer> failsAfterFirst = new Computable<String, Integer>() {
+            public Integer compute(String arg) {
+                if (loads.incrementAndGet() > 1)
+                    throw new IllegalStateException();
+                return 1;
+            }
+        };
+        ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                failsAfterFirst, 0, 0, SHORT, TimeUnit.MILLISECONDS, refresher);
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        Thread.sleep(SHORT * 2);
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        assertEquals(3, loads.get()); // each read past the deadline retries the refresh
+    }
+
+    public void testFailedLoadIsNotCached() throws InterruptedException {
+        Computable<String, Integer> failsFirst = new Computable<String, Integer>() {
+            public Integer compute(String arg) {
+                if (loads.incrementAndGet() == 1)
+                    throw new IllegalStateException();
+                return 2;
+            }
+        };
+        // Without expiry a cached failure would never go away
+        ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                failsFirst, 0, 0, SHORT, TimeUnit.MILLISECONDS, refresher);
+        try {
+            m.compute("a");
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, m.size());
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(2, loads.get());
+    }
+
+    public void testInterruptedLoadIsRethrownAndNotCached() throws InterruptedException {
+        Computable<String, Integer> interruptedFirst = new Computable<String, Integer>() {
+            public Integer compute(String arg) throws InterruptedException {
+                if (loads.incrementAndGet() == 1)
+                    throw new InterruptedException();
+                return 2;
+            }
+        };
+        ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                interruptedFirst, SHORT, 0, TimeUnit.MILLISECONDS);
+        try {
+            m.compute("a");
+            fail();
+        } catch (InterruptedException expected) {
+        }
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(2, loads.get());
+    }
+
+    /**
+     * Readers that were waiting for the first load must not refresh the
+     * value it just computed, however long the memoizer had existed. The
+     * race between the loader stamping the write time and a waiter reading
+     * it cannot be forced, so it is tried many times over.
+     */
+    public void testWaitersDoNotRefreshAFreshLoad() throws Exception {
+        final ExpiringMemoizer<String, Integer> m = new ExpiringMemoizer<String, Integer>(
+                counting, 0, 0, SHORT, TimeUnit.MILLISECONDS, refresher);
+        Thread.sleep(SHORT * 2); // so that a write time of zero looks due for refresh
+        for (int trial = 0; trial < 500; trial++) {
+            final String key = "key " + trial;
+            final CyclicBarrier barrier = new CyclicBarrier(4);
+            Thread[] readers = new Thread[4];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = new Thread() {
+                    public void run() {
+                        try {
+                            barrier.await();
+                            m.compute(key);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                readers[i].start();
+            }
+            for (Thread t : readers)
+                t.join();
+        }
+        assertEquals(0, refreshes.get());
+        assertEquals(500, loads.get());
+    }
+}
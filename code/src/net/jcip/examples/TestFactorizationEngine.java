@@ -0,0 +1,167 @@
+package net.jcip.examples;
+
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.TestCase;
+
+/**
+ * TestFactorizationEngine
+ * <p/>
+ * Unit tests for FactorizationEngine's primality tests and factorization
+ * <p/>
+ * Results are checked against BigInteger: the factors must be prime,
+ * ascending, and multiply back to the number.
+ */
+public class TestFactorizationEngine extends TestCase {
+    private static final long LOCKUP_DETECT_TIMEOUT = 2000; // ms
+    private ForkJoinPool pool;
+    private FactorizationEngine engine;
+
+    protected void setUp() {
+        pool = new ForkJoinPool(2);
+        engine = new FactorizationEngine(pool, 128);
+    }
+
+    protected void tearDown() {
+        pool.shutdownNow();
+    }
+
+    private void assertFactorization(BigInteger n, BigInteger[] factors) {
+        BigInteger product = BigInteger.ONE;
+        for (int i = 0; i < factors.length; i++) {
+            assertTrue(n + ": " + factors[i], factors[i].isProbablePrime(50));
+            if (i > 0)
+                assertTrue(n + " unsorted", factors[i - 1].compareTo(factors[i]) <= 0);
+            product = product.multiply(factors[i]);
+        }
+        assertEquals(n, product);
+    }
+
+    private void assertFactorization(long n) throws InterruptedException {
+        long[] factors = engine.factor(n);
+        BigInteger[] big = new BigInteger[factors.length];
+        for (int i = 0; i < factors.length; i++)
+            big[i] = BigInteger.valueOf(factors[i]);
+        assertFactorization(BigInteger.valueOf(n), big);
+        assertTrue(Arrays.equals(big, engine.factor(BigInteger.valueOf(n))));
+    }
+
+    private static BigInteger prime(int bits, Random random) {
+        return new BigInteger(bits, random).setBit(bits - 1).nextProbablePrime();
+    }
+
+    public void testKnownPrimes() {
+        long[] primes = {2, 3, 37, 65537, Integer.MAX_VALUE, (1L << 61) - 1, Long.MAX_VALUE - 24};
+        for (long p : primes) {
+            assertTrue(Long.toString(p), FactorizationEngine.isProbablePrime(p));
+            assertTrue(Long.toString(p), FactorizationEngine.isProbablePrime(BigInteger.valueOf(p)));
+        }
+        assertTrue(FactorizationEngine.isProbablePrime(BigInteger.ONE.shiftLeft(89).subtract(BigInteger.ONE)));
+        assertTrue(FactorizationEngine.isProbablePrime(BigInteger.ONE.shiftLeft(107).subtract(BigInteger.ONE)));
+    }
+
+    public void testKnownComposites() {
+        // 561 is a Carmichael number; the others are strong pseudoprimes to
+        // every base up to 7, and up to 23, respectively
+        long[] composites = {0, 1, 4, 561, 3215031751L, 3825123056546413051L, Long.MAX_VALUE};
+        for (long n : composites)
+            assertFalse(Long.toString(n), FactorizationEngine.isProbablePrime(n));
+        assertFalse(FactorizationEngine.isProbablePrime(BigInteger.ONE.shiftLeft(67).subtract(BigInteger.ONE)));
+    }
+
+    public void testSmallNumbersAreReturnedAsIs() throws InterruptedException {
+        assertTrue(Arrays.equals(new long[]{1}, engine.factor(1L)));
+        assertTrue(Arrays.equals(new long[]{0}, engine.factor(0L)));
+        assertTrue(Arrays.equals(new long[]{2}, engine.factor(2L)));
+        assertTrue(Arrays.equals(new BigInteger[]{BigInteger.ONE}, engine.factor(BigInteger.ONE)));
+    }
+
+    public void testSemiprimesNearTheLongLimit() throws InterruptedException {
+        long[] primes = {3037000493L, 3036999817L, 2147483647L, 4294967291L};
+        for (long p : primes) {
+            for (long q : primes) {
+                if (BigInteger.valueOf(p).multiply(BigInteger.valueOf(q)).bitLength() < 63)
+                    assertTrue(Arrays.equals(new long[]{Math.min(p, q), Math.max(p, q)},
+                            engine.factor(p * q)));
+            }
+        }
+        // Either side of 2^63, the long path and the BigInteger one
+        BigInteger p = BigInteger.valueOf(4294967291L), q = BigInteger.valueOf(2147483659L);
+        assertFactorization(p.multiply(q), engine.factor(p.multiply(q)));
+        q = BigInteger.valueOf(2147483647L);
+        assertFactorization(p.multiply(q), engine.factor(p.multiply(q)));
+    }
+
+    public void testPerfectPowers() throws InterruptedException {
+        assertTrue(Arrays.equals(new long[]{2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,
+                2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2,
+                2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2}, engine.factor(1L << 62)));
+        long[] cube = new long[39];
+        Arrays.fill(cube, 3);
+        long n = 1;
+        for (int i = 0; i < 39; i++)
+            n *= 3;
+        assertTrue(Arrays.equals(cube, engine.factor(n)));
+        assertTrue(Arrays.equals(new long[]{3037000493L, 3037000493L}, engine.factor(3037000493L * 3037000493L)));
+        assertFactorization(1000003L * 1000003L * 1000003L);
+        Random random = new Random(1);
+        for (int power = 2; power <= 4; power++) {
+            BigInteger p = prime(28, random);
+            assertFactorization(p.pow(power), engine.factor(p.pow(power)));
+        }
+        BigInteger p = prime(36, random);
+        assertFactorization(p.pow(3), engine.factor(p.pow(3)));
+    }
+
+    public void testAgreesWithBigIntegerOnRandomNumbers() throws InterruptedException {
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++)
+            assertFactorization(2 + new BigInteger(1 + random.nextInt(62), random).longValue() / 2);
+        for (int i = 0; i < 200; i++) {
+            BigInteger n = new BigInteger(75, random).setBit(63 + random.nextInt(12));
+            assertFactorization(n, engine.factor(n));
+        }
+        for (int i = 0; i < 5; i++) {
+            BigInteger p = prime(32, random), q = prime(38, random);
+            BigInteger[] factors = engine.factor(p.multiply(q));
+            assertTrue(Arrays.equals(new BigInteger[]{p.min(q), p.max(q)}, factors));
+        }
+    }
+
+    public void testRejectsNumbersOverTheBitLimit() throws InterruptedException {
+        FactorizationEngine limited = new FactorizationEngine(pool, 80);
+        limited.factor(BigInteger.ONE.shiftLeft(80).subtract(BigInteger.ONE));
+        try {
+            limited.factor(BigInteger.ONE.shiftLeft(80));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testInterruptStopsALongFactorization() throws InterruptedException {
+        Random random = new Random(7);
+        // Two 60-bit primes: far more rho steps than the test could wait for
+        final BigInteger n = prime(60, random).multiply(prime(60, random));
+        final BlockingQueue<Throwable> outcome = new LinkedBlockingQueue<Throwable>();
+        Thread factorer = new Thread() {
+            public void run() {
+                try {
+                    engine.factor(n);
+                    outcome.add(new AssertionError("finished"));
+                } catch (Throwable t) {
+                    outcome.add(t);
+                }
+            }
+        };
+        factorer.start();
+        Thread.sleep(LOCKUP_DETECT_TIMEOUT / 4);
+        assertTrue(factorer.isAlive());
+        factorer.interrupt();
+        Throwable t = outcome.poll(LOCKUP_DETECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        assertTrue(String.valueOf(t), t instanceof InterruptedException);
+        // The racers on the pool are stopped too
+        assertTrue(pool.awaitQuiescence(LOCKUP_DETECT_TIMEOUT, TimeUnit.MILLISECONDS));
+    }
+}
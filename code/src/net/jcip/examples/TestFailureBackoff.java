@@ -0,0 +1,47 @@
+package net.jcip.examples;
+
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * TestFailureBackoff
+ * <p/>
+ * Unit tests for FailureBackoff's doubling and its bounds
+ */
+public class TestFailureBackoff extends TestCase {
+
+    public void testDelayDoublesWithEachFailure() {
+        FailureBackoff backoff = new FailureBackoff(1, 1000, TimeUnit.MILLISECONDS);
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        assertEquals(ms, backoff.delayNanos(1));
+        assertEquals(2 * ms, backoff.delayNanos(2));
+        assertEquals(4 * ms, backoff.delayNanos(3));
+        assertEquals(512 * ms, backoff.delayNanos(10));
+    }
+
+    public void testDelayIsCappedAtTheMaximum() {
+        FailureBackoff backoff = new FailureBackoff(1, 1000, TimeUnit.MILLISECONDS);
+        long max = TimeUnit.MILLISECONDS.toNanos(1000);
+        assertEquals(max, backoff.delayNanos(11));
+        assertEquals(max, backoff.delayNanos(62));
+        assertEquals(max, backoff.delayNanos(64)); // the shift alone would overflow
+        assertEquals(max, backoff.delayNanos(Integer.MAX_VALUE));
+    }
+
+    public void testLongestDelay() {
+        FailureBackoff backoff = new FailureBackoff(1, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        assertEquals(1L << 62, backoff.delayNanos(63));
+        assertEquals(Long.MAX_VALUE, backoff.delayNanos(64));
+    }
+
+    public void testRejectsBadDelays() {
+        for (long[] delays : new long[][]{{0, 1}, {-1, 1}, {2, 1}}) {
+            try {
+                new FailureBackoff(delays[0], delays[1], TimeUnit.SECONDS);
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
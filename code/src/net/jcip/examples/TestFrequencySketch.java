@@ -0,0 +1,59 @@
+package net.jcip.examples;
+
+import junit.framework.TestCase;
+
+/**
+ * TestFrequencySketch
+ * <p/>
+ * Unit tests for FrequencySketch counting, saturation and aging
+ */
+public class TestFrequencySketch extends TestCase {
+
+    public void testUnseenItemHasNoFrequency() {
+        FrequencySketch<String> sketch = new FrequencySketch<String>(64);
+        assertEquals(0, sketch.frequency("a"));
+    }
+
+    public void testCountsIncrements() {
+        FrequencySketch<String> sketch = new FrequencySketch<String>(64);
+        for (int i = 1; i <= 10; i++) {
+            sketch.increment("a");
+            assertEquals(i, sketch.frequency("a"));
+        }
+    }
+
+    public void testCountersSaturate() {
+        FrequencySketch<String> sketch = new FrequencySketch<String>(64);
+        for (int i = 0; i < 100; i++)
+            sketch.increment("a");
+        assertEquals(15, sketch.frequency("a"));
+    }
+
+    public void testPopularItemsStandOut() {
+        FrequencySketch<Integer> sketch = new FrequencySketch<Integer>(512);
+        for (int i = 0; i < 500; i++)
+            sketch.increment(i);
+        for (int n = 0; n < 8; n++)
+            for (int i = 0; i < 10; i++)
+                sketch.increment(i);
+        for (int i = 0; i < 10; i++)
+            assertTrue(sketch.frequency(i) >= 9);
+        int overestimated = 0;
+        for (int i = 10; i < 500; i++)
+            if (sketch.frequency(i) > 2)
+                overestimated++;
+        assertTrue("overestimated " + overestimated, overestimated < 25);
+    }
+
+    /** The sample size is ten times the capacity, 160 for the smallest sketch */
+    public void testHistoryIsHalvedAtTheSampleSize() {
+        FrequencySketch<Integer> sketch = new FrequencySketch<Integer>(16);
+        for (int i = 0; i < 15; i++)
+            sketch.increment(-1);
+        int others = 0;
+        while (sketch.frequency(-1) == 15 && others < 1000)
+            sketch.increment(others++);
+        assertEquals(7, sketch.frequency(-1));
+        assertTrue("reset after " + others, others >= 145 && others < 200);
+    }
+}
@@ -0,0 +1,221 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * TestMemoizer
+ * <p/>
+ * Unit tests for Memoizer's bulk computation and failure handling
+ * <p/>
+ * The backoff tests sleep past, or short of, delays of a tenth of a second
+ * or more, by at least half a tenth of a second.
+ */
+public class TestMemoizer extends TestCase {
+    private static final long DELAY = 100; // ms
+    private final AtomicInteger loads = new AtomicInteger();
+    private volatile boolean failing = true;
+
+    /** Returns the length of its argument; fails for "bad" and is interrupted by "stop" */
+    private final Computable<String, Integer> length = new Computable<String, Integer>() {
+        public Integer compute(String arg) throws InterruptedException {
+            loads.incrementAndGet();
+            if (arg.equals("bad"))
+                throw new IllegalArgumentException(arg);
+            if (arg.equals("stop"))
+                throw new InterruptedException();
+            return arg.length();
+        }
+    };
+
+    /** Fails while failing is set, and returns the load's number after that */
+    private final Computable<String, Integer> flaky = new Computable<String, Integer>() {
+        public Integer compute(String arg) {
+            int n = loads.incrementAndGet();
+            if (failing)
+                throw new IllegalStateException("failure " + n);
+            return n;
+        }
+    };
+
+    private Memoizer<String, Integer> withBackoff(Computable<String, Integer> c) {
+        return new Memoizer<String, Integer>(c, null,
+                new FailureBackoff(DELAY, 8 * DELAY, TimeUnit.MILLISECONDS));
+    }
+
+    private void assertFails(Memoizer<String, Integer> m, String message) throws InterruptedException {
+        try {
+            m.compute("a");
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals(message, expected.getMessage());
+        }
+    }
+
+    public void testComputeAllCachesEachResult() throws InterruptedException {
+        Memoizer<String, Integer> m = new Memoizer<String, Integer>(length);
+        Map<String, Integer> values = m.computeAll(Arrays.asList("a", "bb", "a", "ccc"));
+        assertEquals(Arrays.asList("a", "bb", "ccc"), new ArrayList<String>(values.keySet()));
+        assertEquals(Integer.valueOf(2), values.get("bb"));
+        assertEquals(3, loads.get());
+        assertEquals(Integer.valueOf(3), m.compute("ccc"));
+        assertEquals(3, loads.get());
+    }
+
+    public void testFailureIsConfinedToItsOwnArgument() throws InterruptedException {
+        Memoizer<String, Integer> m = new Memoizer<String, Integer>(length);
+        try {
+            m.computeAll(Arrays.asList("a", "bad", "ccc"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("bad", expected.getMessage());
+        }
+        assertEquals(3, loads.get());
+        assertEquals(Integer.valueOf(1), m.compute("a"));
+        assertEquals(Integer.valueOf(3), m.compute("ccc"));
+        assertEquals(3, loads.get());
+    }
+
+    public void testFailedBulkComputationFallsBackToEachArgument() throws InterruptedException {
+        final AtomicInteger bulkCalls = new AtomicInteger();
+        BulkComputable<String, Integer> down = new BulkComputable<String, Integer>() {
+            public Map<String, Integer> computeAll(Collection<? extends String> args) {
+                bulkCalls.incrementAndGet();
+                throw new IllegalStateException("backend down");
+            }
+        };
+        Memoizer<String, Integer> m = new Memoizer<String, Integer>(length, down);
+        Map<String, Integer> values = m.computeAll(Arrays.asList("a", "bb"));
+        assertEquals(Integer.valueOf(1), values.get("a"));
+        assertEquals(Integer.valueOf(2), values.get("bb"));
+        assertEquals(1, bulkCalls.get());
+        assertEquals(2, loads.get());
+        try {
+            m.computeAll(Arrays.asList("a", "bad"));
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("bad", expected.getMessage());
+        }
+        assertEquals(3, loads.get());
+    }
+
+    public void testArgumentMissingFromBulkResultFails() throws InterruptedException {
+        BulkComputable<String, Integer> partial = new BulkComputable<String, Integer>() {
+            public Map<String, Integer> computeAll(Collection<? extends String> args) {
+                return Collections.singletonMap("a", 1);
+            }
+        };
+        Memoizer<String, Integer> m = new Memoizer<String, Integer>(length, partial);
+        try {
+            m.computeAll(Arrays.asList("a", "bb"));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(Integer.valueOf(2), m.compute("bb")); // not cached, so computed singly
+        assertEquals(1, loads.get());
+    }
+
+    public void testInterruptionDropsOnlyTheArgumentsNotYetComputed() {
+        Memoizer<String, Integer> m = new Memoizer<String, Integer>(length);
+        try {
+            m.computeAll(Arrays.asList("a", "stop", "ccc"));
+            fail();
+        } catch (InterruptedException expected) {
+        }
+        assertEquals(2, loads.get());
+        try {
+            assertEquals(Integer.valueOf(1), m.compute("a"));
+            assertEquals(2, loads.get());
+            assertEquals(Integer.valueOf(3), m.compute("ccc"));
+            assertEquals(3, loads.get());
+        } catch (InterruptedException unexpected) {
+            fail();
+        }
+    }
+
+    public void testFailureIsCachedForGoodWithoutBackoff() throws InterruptedException {
+        Memoizer<String, Integer> m = new Memoizer<String, Integer>(flaky);
+        assertFails(m, "failure 1");
+        Thread.sleep(DELAY);
+        failing = false;
+        assertFails(m, "failure 1");
+        assertEquals(1, loads.get());
+    }
+
+    public void testFailureIsRetriedOnceTheDelayHasPassed() throws InterruptedException {
+        Memoizer<String, Integer> m = withBackoff(flaky);
+        assertFails(m, "failure 1");
+        failing = false;
+        assertFails(m, "failure 1");
+        Thread.sleep(DELAY * 3 / 2);
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+        assertEquals(2, loads.get());
+    }
+
+    public void testRepeatedFailuresDoubleTheDelay() throws InterruptedException {
+        Memoizer<String, Integer> m = withBackoff(flaky);
+        assertFails(m, "failure 1");
+        Thread.sleep(DELAY * 3 / 2);
+        assertFails(m, "failure 2"); // retried, and now cached for twice as long
+        Thread.sleep(DELAY * 3 / 2);
+        assertFails(m, "failure 2");
+        Thread.sleep(DELAY);
+        assertFails(m, "failure 3");
+        assertEquals(3, loads.get());
+    }
+
+    public void testFailureRetriedByComputeAll() throws InterruptedException {
+        Memoizer<String, Integer> m = withBackoff(flaky);
+        assertFails(m, "failure 1");
+        Thread.sleep(DELAY * 3 / 2);
+        failing = false;
+        assertEquals(Integer.valueOf(2), m.computeAll(Arrays.asList("a")).get("a"));
+        assertEquals(Integer.valueOf(2), m.compute("a"));
+    }
+
+    public void testInterruptedComputationIsNotCached() throws InterruptedException {
+        for (Memoizer<String, Integer> m : Arrays.asList(
+                new Memoizer<String, Integer>(length), withBackoff(length))) {
+            try {
+                m.compute("stop");
+                fail();
+            } catch (InterruptedException expected) {
+            }
+            try {
+                m.compute("stop");
+                fail();
+            } catch (InterruptedException expected) {
+            }
+        }
+        assertEquals(4, loads.get());
+    }
+
+    public void testInterruptedRetryLeavesTheFailureCached() throws InterruptedException {
+        Computable<String, Integer> failsThenInterrupted = new Computable<String, Integer>() {
+            public Integer compute(String arg) throws InterruptedException {
+                if (loads.incrementAndGet() == 1)
+                    throw new IllegalStateException("failure 1");
+                throw new InterruptedException();
+            }
+        };
+        Memoizer<String, Integer> m = withBackoff(failsThenInterrupted);
+        assertFails(m, "failure 1");
+        Thread.sleep(DELAY * 3 / 2);
+        try {
+            m.compute("a");
+            fail();
+        } catch (InterruptedException expected) {
+        }
+        assertEquals(2, loads.get());
+        try {
+            m.compute("a"); // still due, and the retry was released, so tried again
+            fail();
+        } catch (InterruptedException expected) {
+        }
+        assertEquals(3, loads.get());
+    }
+}
@@ -0,0 +1,172 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * TestMemoizerSnapshot
+ * <p/>
+ * Unit tests for saving and restoring a Memoizer, including corrupt records
+ */
+public class TestMemoizerSnapshot extends TestCase {
+    private final AtomicInteger loads = new AtomicInteger();
+    private File dir, file;
+
+    /** Factors by the book, counting each load */
+    private final Computable<BigInteger, BigInteger[]> factorizer = new Computable<BigInteger, BigInteger[]>() {
+        public BigInteger[] compute(BigInteger arg) {
+            loads.incrementAndGet();
+            List<BigInteger> factors = new ArrayList<BigInteger>();
+            BigInteger n = arg;
+            for (BigInteger p = BigInteger.valueOf(2); p.multiply(p).compareTo(n) <= 0; p = p.add(BigInteger.ONE)) {
+                while (n.mod(p).signum() == 0) {
+                    factors.add(p);
+                    n = n.divide(p);
+                }
+            }
+            if (n.compareTo(BigInteger.ONE) > 0)
+                factors.add(n);
+            return factors.toArray(new BigInteger[factors.size()]);
+        }
+    };
+
+    private final Computable<String, String> upperCase = new Computable<String, String>() {
+        public String compute(String arg) {
+            loads.incrementAndGet();
+            return arg.toUpperCase();
+        }
+    };
+
+    /** Strings, except that anything starting with "bad" cannot be decoded */
+    private static final EntryCodec<String> FRAGILE = new EntryCodec<String>() {
+        public void encode(String value, DataOutput out) throws IOException {
+            PersistentBoundedQueue.STRING.encode(value, out);
+        }
+
+        public String decode(ByteBuffer in) {
+            String s = PersistentBoundedQueue.STRING.decode(in);
+            if (s.toLowerCase().startsWith("bad"))
+                throw new IllegalArgumentException("corrupt: " + s);
+            return s;
+        }
+    };
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        file = new File(dir, "memo");
+    }
+
+    protected void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    public void testRestoredValuesAreNotRecomputed() throws Exception {
+        Memoizer<BigInteger, BigInteger[]> m = new Memoizer<BigInteger, BigInteger[]>(factorizer);
+        for (int i = 2; i < 100; i++)
+            m.compute(BigInteger.valueOf(i * 7919L));
+        assertEquals(98, MemoizerSnapshot.write(m, file,
+                MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY));
+        loads.set(0);
+        Memoizer<BigInteger, BigInteger[]> restored = new Memoizer<BigInteger, BigInteger[]>(factorizer);
+        assertEquals(98, MemoizerSnapshot.restore(restored, file,
+                MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY));
+        for (int i = 2; i < 100; i++) {
+            BigInteger n = BigInteger.valueOf(i * 7919L);
+            assertTrue(Arrays.equals(m.compute(n), restored.compute(n)));
+        }
+        assertEquals(0, loads.get());
+    }
+
+    public void testFieldsHaveASingleLengthPrefix() throws Exception {
+        Memoizer<BigInteger, BigInteger[]> m = new Memoizer<BigInteger, BigInteger[]>(factorizer);
+        m.compute(BigInteger.valueOf(6));
+        MemoizerSnapshot.write(m, file, MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY);
+        int header = 12;
+        int key = 4 + 1; // length, then the byte 6
+        int value = 4 + 4 + 2 * (4 + 1); // length, count, then 2 and 3 each with its own length
+        assertEquals(header + key + value, file.length());
+    }
+
+    public void testCorruptValueIsRecomputed() throws Exception {
+        Memoizer<String, String> m = new Memoizer<String, String>(upperCase);
+        m.compute("a");
+        m.compute("bad");
+        MemoizerSnapshot.write(m, file, PersistentBoundedQueue.STRING, FRAGILE);
+        loads.set(0);
+        Memoizer<String, String> restored = new Memoizer<String, String>(upperCase);
+        assertEquals(2, MemoizerSnapshot.restore(restored, file, PersistentBoundedQueue.STRING, FRAGILE));
+        assertEquals("A", restored.compute("a"));
+        assertEquals(0, loads.get());
+        assertEquals("BAD", restored.compute("bad"));
+        assertEquals("BAD", restored.compute("bad"));
+        assertEquals(1, loads.get());
+    }
+
+    public void testCorruptValueIsLeftOutOfTheNextSnapshot() throws Exception {
+        Memoizer<String, String> m = new Memoizer<String, String>(upperCase);
+        m.compute("a");
+        m.compute("bad");
+        MemoizerSnapshot.write(m, file, PersistentBoundedQueue.STRING, FRAGILE);
+        Memoizer<String, String> restored = new Memoizer<String, String>(upperCase);
+        MemoizerSnapshot.restore(restored, file, PersistentBoundedQueue.STRING, FRAGILE);
+        assertEquals(1, MemoizerSnapshot.write(restored, file, PersistentBoundedQueue.STRING, FRAGILE));
+    }
+
+    public void testCorruptCountIsRecomputedRatherThanAllocated() throws Exception {
+        Memoizer<BigInteger, BigInteger[]> m = new Memoizer<BigInteger, BigInteger[]>(factorizer);
+        m.compute(BigInteger.valueOf(6));
+        MemoizerSnapshot.write(m, file, MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(12 + 4 + 1 + 4); // header, key, value length: the element count
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        loads.set(0);
+        Memoizer<BigInteger, BigInteger[]> restored = new Memoizer<BigInteger, BigInteger[]>(factorizer);
+        MemoizerSnapshot.restore(restored, file, MemoizerSnapshot.BIG_INTEGER, MemoizerSnapshot.BIG_INTEGER_ARRAY);
+        assertTrue(Arrays.equals(new BigInteger[]{BigInteger.valueOf(2), BigInteger.valueOf(3)},
+                restored.compute(BigInteger.valueOf(6))));
+        assertEquals(1, loads.get());
+    }
+
+    public void testCorruptKeyIsSkipped() throws Exception {
+        Memoizer<String, String> m = new Memoizer<String, String>(upperCase);
+        m.compute("a");
+        m.compute("bad");
+        m.compute("c");
+        MemoizerSnapshot.write(m, file, FRAGILE, PersistentBoundedQueue.STRING);
+        loads.set(0);
+        Memoizer<String, String> restored = new Memoizer<String, String>(upperCase);
+        assertEquals(2, MemoizerSnapshot.restore(restored, file, FRAGILE, PersistentBoundedQueue.STRING));
+        assertEquals("C", restored.compute("c"));
+        assertEquals(0, loads.get());
+    }
+
+    public void testValueWithTrailingBytesIsCorrupt() throws Exception {
+        Memoizer<String, String> m = new Memoizer<String, String>(upperCase);
+        m.compute("ab");
+        MemoizerSnapshot.write(m, file, PersistentBoundedQueue.STRING, PersistentBoundedQueue.STRING);
+        EntryCodec<String> firstByteOnly = new EntryCodec<String>() {
+            public void encode(String value, DataOutput out) {
+                throw new UnsupportedOperationException();
+            }
+
+            public String decode(ByteBuffer in) {
+                return new String(new byte[]{in.get()}, StandardCharsets.UTF_8);
+            }
+        };
+        loads.set(0);
+        Memoizer<String, String> restored = new Memoizer<String, String>(upperCase);
+        MemoizerSnapshot.restore(restored, file, PersistentBoundedQueue.STRING, firstByteOnly);
+        assertEquals("AB", restored.compute("ab"));
+        assertEquals(1, loads.get());
+    }
+}
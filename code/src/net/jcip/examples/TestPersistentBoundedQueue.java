@@ -0,0 +1,157 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * TestPersistentBoundedQueue
+ * <p/>
+ * Unit tests for PersistentBoundedQueue, including reopening after a crash
+ * <p/>
+ * A crash is simulated by opening the directory again without closing the
+ * queue; the mappings share the page cache, so what the new queue sees is
+ * what was written, synced or not. The torn-record test corrupts a segment
+ * file by hand.
+ */
+public class TestPersistentBoundedQueue extends TestCase {
+    private static final int SEGMENT_SIZE = 256; // a dozen records or so
+    private File dir;
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("queue").toFile();
+    }
+
+    protected void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private PersistentBoundedQueue<String> open(int capacity) throws IOException {
+        return open(capacity, SEGMENT_SIZE);
+    }
+
+    private PersistentBoundedQueue<String> open(int capacity, int segmentSize) throws IOException {
+        return new PersistentBoundedQueue<String>(dir, capacity, PersistentBoundedQueue.STRING,
+                segmentSize, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private static String filler(int length) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            s.append((char) ('a' + i % 26));
+        return s.toString();
+    }
+
+    public void testTakesInOrderAcrossSegments() throws Exception {
+        PersistentBoundedQueue<String> q = open(1000);
+        for (int i = 0; i < 1000; i++)
+            q.put("item " + i);
+        assertEquals(1000, q.size());
+        assertTrue(dir.list().length > 2);
+        for (int i = 0; i < 1000; i++)
+            assertEquals("item " + i, q.take());
+        assertTrue(q.isEmpty());
+        q.sync();
+        assertEquals(2, dir.list().length); // the checkpoint and the current segment
+    }
+
+    // A segment keeps its last 4 bytes for the terminator or the end-of-segment
+    // marker, so the largest record ends exactly there
+    public void testRecordFillingSegmentToTheEdge() throws Exception {
+        String largest = filler(SEGMENT_SIZE - 8 - 4);
+        PersistentBoundedQueue<String> q = open(10);
+        q.put(largest);
+        q.put("next segment");
+        q.put(largest.substring(1)); // ends 1 byte short of the edge, in a third segment
+        q.put(filler(SEGMENT_SIZE - 8 - 4 - 8 - 2)); // a record then this one end at the edge
+        assertEquals(largest, q.take());
+        assertEquals("next segment", q.take());
+        assertEquals(largest.substring(1), q.take());
+        assertEquals(filler(SEGMENT_SIZE - 8 - 4 - 8 - 2), q.take());
+        try {
+            q.put(largest + "x");
+            fail();
+        } catch (IllegalArgumentException tooBig) {
+        }
+    }
+
+    public void testRecordFillingSmallSegment() throws Exception {
+        PersistentBoundedQueue<String> small = open(10, 32);
+        small.put(filler(20));
+        small.put(filler(20));
+        assertEquals(filler(20), small.take());
+        assertEquals(filler(20), small.take());
+    }
+
+    public void testRecordsOfRandomSizesSurviveReopening() throws Exception {
+        Random random = new Random(17);
+        List<String> expected = new ArrayList<String>();
+        PersistentBoundedQueue<String> q = open(20000, 4096);
+        for (int i = 0; i < 20000; i++) {
+            String s = filler(random.nextInt(100));
+            q.put(s);
+            expected.add(s);
+        }
+        q.sync();
+        PersistentBoundedQueue<String> reopened = open(20000, 4096);
+        assertEquals(expected.size(), reopened.size());
+        for (String s : expected)
+            assertEquals(s, reopened.take());
+        assertNull(reopened.poll());
+    }
+
+    public void testOfferFailsWhenFull() throws Exception {
+        PersistentBoundedQueue<String> q = open(10);
+        for (int i = 0; i < 10; i++)
+            assertTrue(q.offer("item " + i));
+        assertFalse(q.offer("one too many"));
+        assertEquals(0, q.remainingCapacity());
+        assertEquals("item 0", q.poll());
+        assertTrue(q.offer("one more"));
+    }
+
+    public void testReopenRecoversUntakenItems() throws Exception {
+        PersistentBoundedQueue<String> q = open(1000);
+        for (int i = 0; i < 100; i++)
+            q.put("item " + i);
+        for (int i = 0; i < 40; i++)
+            q.take();
+        q.sync();
+        q.take(); // after the checkpoint, so delivered again
+
+        PersistentBoundedQueue<String> reopened = open(1000);
+        assertEquals(60, reopened.size());
+        assertEquals("item 40", reopened.peek());
+        reopened.put("item 100");
+        for (int i = 40; i <= 100; i++)
+            assertEquals("item " + i, reopened.take());
+    }
+
+    public void testTornRecordEndsQueue() throws Exception {
+        PersistentBoundedQueue<String> q = open(1000);
+        for (int i = 0; i < 10; i++)
+            q.put("item " + i);
+        q.close();
+        // Records are 8 bytes of header and 6 of payload; damage the eighth's payload
+        RandomAccessFile segment = new RandomAccessFile(new File(dir, "0000000000000000.segment"), "rw");
+        try {
+            segment.seek(7 * 14 + 8);
+            segment.write('X');
+        } finally {
+            segment.close();
+        }
+
+        PersistentBoundedQueue<String> reopened = open(1000);
+        assertEquals(7, reopened.size());
+        reopened.put("item 7 again");
+        for (int i = 0; i < 7; i++)
+            assertEquals("item " + i, reopened.take());
+        assertEquals("item 7 again", reopened.take());
+        assertNull(reopened.poll());
+    }
+}
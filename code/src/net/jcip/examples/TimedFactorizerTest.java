@@ -0,0 +1,110 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.servlet.*;
+
+/**
+ * TimedFactorizerTest
+ * <p/>
+ * Comparing the caching factorizers under concurrent load
+ * <p/>
+ * Each thread repeatedly asks for one of a small set of numbers, so the
+ * caches that remember more than the last number should mostly hit.
+ * Responses are written to a stream that discards them, so that the
+ * servlets that keep pre-encoded responses are measured including the copy.
+ */
+public class TimedFactorizerTest {
+    private static final int N_NUMBERS = 16;
+    private static final BigInteger[] NUMBERS = new BigInteger[N_NUMBERS];
+    private static final String[] NUMBER_STRINGS = new String[N_NUMBERS];
+    private static final OutputStream DISCARD = new OutputStream() {
+        public void write(int b) {
+        }
+
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private static final ThreadLocal<XorShift> rnd = new ThreadLocal<XorShift>() {
+        protected XorShift initialValue() {
+            return new XorShift();
+        }
+    };
+
+    static {
+        Random r = new Random(42);
+        for (int i = 0; i < N_NUMBERS; i++) {
+            NUMBERS[i] = BigInteger.probablePrime(20, r).multiply(BigInteger.probablePrime(20, r));
+            NUMBER_STRINGS[i] = NUMBERS[i].toString();
+        }
+    }
+
+    private static int nextIndex() {
+        return (rnd.get().next() >>> 1) % N_NUMBERS;
+    }
+
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    private final BarrierTimer timer = new BarrierTimer();
+
+    long nsPerRequest(final Servlet servlet, int nThreads, int totalRequests)
+            throws Exception {
+        final int requests = totalRequests / nThreads;
+        final CyclicBarrier barrier = new CyclicBarrier(nThreads + 1, timer);
+        timer.clear();
+        for (int t = 0; t < nThreads; t++)
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        for (int i = 0; i < requests; i++)
+                            servlet.service(null, null);
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        barrier.await();
+        barrier.await();
+        return timer.getTime() / (nThreads * (long) requests);
+    }
+
+    public static void main(String[] args) throws Exception {
+        TimedFactorizerTest t = new TimedFactorizerTest();
+        int requests = 100000; // in total, split across the threads
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Servlet cached = new CachedFactorizer() {
+                String extractFromRequest(ServletRequest req) {
+                    return NUMBER_STRINGS[nextIndex()];
+                }
+
+                void encodeIntoResponse(ServletResponse resp, EncodedFactors factors)
+                        throws IOException {
+                    factors.writeTo(DISCARD);
+                }
+            };
+            Servlet memoized = new Factorizer() {
+                BigInteger extractFromRequest(ServletRequest req) {
+                    return NUMBERS[nextIndex()];
+                }
+            };
+            Servlet clock = new VolatileCachedFactorizer() {
+                String extractFromRequest(ServletRequest req) {
+                    return NUMBER_STRINGS[nextIndex()];
+                }
+
+                void encodeIntoResponse(ServletResponse resp, EncodedFactors factors)
+                        throws IOException {
+                    factors.writeTo(DISCARD);
+                }
+            };
+            System.out.print("Threads: " + threads);
+            System.out.print("\tCachedFactorizer: " + t.nsPerRequest(cached, threads, requests) + " ns/req");
+            System.out.print("\tMemoizer: " + t.nsPerRequest(memoized, threads, requests) + " ns/req");
+            System.out.println("\tClockValueCache: " + t.nsPerRequest(clock, threads, requests) + " ns/req");
+        }
+        t.pool.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package net.jcip.examples;
+
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TimedLinkedQueueTest
+ * <p/>
+ * Comparing LinkedQueue, with and without relaxed tail updates, with ConcurrentLinkedQueue
+ * <p/>
+ * Equal numbers of producers and consumers offer and poll a fixed number
+ * of items each; consumers yield when they find the queue empty. Checks
+ * that everything offered was polled exactly once, by sum.
+ */
+public class TimedLinkedQueueTest {
+    private static final int ITEMS_PER_PRODUCER = 500000;
+    private static final Integer[] VALUES = new Integer[1024]; // boxed up front, so that boxing is not measured
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    static {
+        for (int i = 0; i < VALUES.length; i++)
+            VALUES[i] = i;
+    }
+
+    static long nsPerItem(final Queue<Integer> queue, int pairs) throws Exception {
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(2 * pairs + 1, timer);
+        final AtomicLong putSum = new AtomicLong(), takeSum = new AtomicLong();
+        for (int i = 0; i < pairs; i++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        long sum = 0;
+                        for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+                            Integer value = VALUES[i & (VALUES.length - 1)];
+                            queue.offer(value);
+                            sum += value;
+                        }
+                        putSum.addAndGet(sum);
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        long sum = 0;
+                        for (int i = 0; i < ITEMS_PER_PRODUCER; ) {
+                            Integer value = queue.poll();
+                            if (value == null) {
+                                Thread.yield();
+                            } else {
+                                sum += value;
+                                i++;
+                            }
+                        }
+                        takeSum.addAndGet(sum);
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        barrier.await();
+        barrier.await();
+        if (putSum.get() != takeSum.get() || !queue.isEmpty() || queue.size() != 0)
+            throw new AssertionError("items lost or repeated");
+        return timer.getTime() / (pairs * (long) ITEMS_PER_PRODUCER);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int pairs = 1; pairs <= 16; pairs *= 2) {
+            System.out.println("Pairs: " + pairs);
+            for (int run = 0; run < 2; run++) {
+                System.out.print("ConcurrentLinkedQueue: "
+                        + nsPerItem(new ConcurrentLinkedQueue<Integer>(), pairs) + " ns/item");
+                System.out.print("\tLinkedQueue: "
+                        + nsPerItem(new LinkedQueue<Integer>(), pairs) + " ns/item");
+                System.out.println("\trelaxed tail: "
+                        + nsPerItem(new LinkedQueue<Integer>(true), pairs) + " ns/item");
+            }
+        }
+        pool.shutdown();
+    }
+}
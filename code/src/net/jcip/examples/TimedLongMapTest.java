@@ -0,0 +1,161 @@
+package net.jcip.examples;
+
+import java.lang.management.*;
+import java.util.concurrent.*;
+
+/**
+ * TimedLongMapTest
+ * <p/>
+ * Comparing ConcurrentLongObjectMap and ConcurrentLongLongMap with ConcurrentHashMap<Long, V>
+ * <p/>
+ * Fills each map with ids 1 to N (ten million unless given as the first
+ * argument; run with a heap of 4GB or so) and reports the heap it takes
+ * per entry, then the operations per second of a 90% get, 10% put mix on
+ * random ids. Keys for ConcurrentHashMap are boxed on each call, as they
+ * would be by a caller holding a long id; the long to object maps share a
+ * single value, so that only the maps themselves are measured, while the
+ * long to long ones store a different value for each id.
+ */
+public class TimedLongMapTest {
+    private static final int OPS = 1 << 22; // shared out among the threads
+    private static final Object VALUE = new Object();
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    /** The operations under test, on primitive ids, so that the maps can share one loop */
+    interface LongMap {
+        long get(long key);
+
+        void put(long key, long value);
+    }
+
+    static LongMap longObjectMap(int n) {
+        final ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<Object>(n);
+        return new LongMap() {
+            public long get(long key) {
+                return (map.get(key) != null) ? 1 : 0;
+            }
+
+            public void put(long key, long value) {
+                map.put(key, VALUE);
+            }
+        };
+    }
+
+    static LongMap objectMap(int n) {
+        final ConcurrentHashMap<Long, Object> map = new ConcurrentHashMap<Long, Object>(n);
+        return new LongMap() {
+            public long get(long key) {
+                return (map.get(key) != null) ? 1 : 0;
+            }
+
+            public void put(long key, long value) {
+                map.put(key, VALUE);
+            }
+        };
+    }
+
+    static LongMap longLongMap(int n) {
+        final ConcurrentLongLongMap map = new ConcurrentLongLongMap(n, -1);
+        return new LongMap() {
+            public long get(long key) {
+                return map.get(key);
+            }
+
+            public void put(long key, long value) {
+                map.put(key, value);
+            }
+        };
+    }
+
+    static LongMap longValueMap(int n) {
+        final ConcurrentHashMap<Long, Long> map = new ConcurrentHashMap<Long, Long>(n);
+        return new LongMap() {
+            public long get(long key) {
+                Long value = map.get(key);
+                return (value != null) ? value : -1;
+            }
+
+            public void put(long key, long value) {
+                map.put(key, value);
+            }
+        };
+    }
+
+    static LongMap create(String kind, int n) {
+        if (kind.equals("ConcurrentHashMap<Long, Object>"))
+            return objectMap(n);
+        if (kind.equals("ConcurrentLongObjectMap"))
+            return longObjectMap(n);
+        if (kind.equals("ConcurrentHashMap<Long, Long>"))
+            return longValueMap(n);
+        return longLongMap(n);
+    }
+
+    static long opsPerSecond(final LongMap map, final int n, int nThreads) throws Exception {
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(nThreads + 1, timer);
+        final int perThread = OPS / nThreads;
+        final long[] checks = new long[nThreads];
+        for (int t = 0; t < nThreads; t++) {
+            final int thread = t;
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long check = 0;
+                        barrier.await();
+                        for (int i = 0; i < perThread; i++) {
+                            long id = 1 + random.nextInt(n);
+                            if (random.nextInt(10) == 0)
+                                map.put(id, id);
+                            else
+                                check += map.get(id);
+                        }
+                        checks[thread] = check; // so that the gets are not optimized away
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        barrier.await();
+        barrier.await();
+        return perThread * (long) nThreads * 1000000000L / timer.getTime();
+    }
+
+    /* Snapshot heap and return heap size, in bytes */
+    private static long snapshotHeap() {
+        // Collect until the used heap stops shrinking
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            memory.gc();
+            long now = memory.getHeapMemoryUsage().getUsed();
+            if (now >= used)
+                break;
+            used = now;
+        }
+        return used;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10000000;
+        String[] kinds = {"ConcurrentHashMap<Long, Object>", "ConcurrentLongObjectMap",
+                          "ConcurrentHashMap<Long, Long>", "ConcurrentLongLongMap"};
+        System.out.println("Entries: " + n);
+        for (String kind : kinds) {
+            long before = snapshotHeap();
+            LongMap map = create(kind, n);
+            for (int id = 1; id <= n; id++)
+                map.put(id, id);
+            System.out.println(kind + ": " + (snapshotHeap() - before) / n + " bytes/entry");
+            for (int nThreads = 1; nThreads <= 16; nThreads *= 2) {
+                opsPerSecond(map, n, nThreads); // warm up
+                System.out.println("\tThreads: " + nThreads + "\t" + opsPerSecond(map, n, nThreads) + " ops/s");
+            }
+            map = null;
+        }
+        pool.shutdown();
+    }
+}
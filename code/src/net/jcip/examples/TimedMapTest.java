@@ -0,0 +1,160 @@
+package net.jcip.examples;
+
+import java.util.HashMap;
+import java.util.concurrent.*;
+
+/**
+ * TimedMapTest
+ * <p/>
+ * Comparing StripedMap with ConcurrentHashMap, ReadWriteMap and StampedReadWriteMap on read-heavy and write-heavy mixes
+ * <p/>
+ * Each thread runs a fixed number of operations on random keys from a
+ * fixed range, preloaded with half the keys: 99% gets and 1% puts for the
+ * read-mostly mix, 90% gets, 9% puts and 1% removes for the read-heavy
+ * one, and 50% gets, 25% puts and 25% removes for the write-heavy one.
+ * StampedReadWriteMap runs both with optimistic reads and without.
+ */
+public class TimedMapTest {
+    private static final int KEYS = 1 << 16;
+    private static final int OPS = 1 << 21; // shared out among the threads
+    private static final Integer[] VALUES = new Integer[KEYS]; // boxed up front, so that boxing is not measured
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    static {
+        for (int i = 0; i < KEYS; i++)
+            VALUES[i] = i;
+    }
+
+    /** The operations under test, so that the three maps can share one loop */
+    interface Map {
+        Integer get(Integer key);
+
+        Integer put(Integer key, Integer value);
+
+        Integer remove(Integer key);
+    }
+
+    static long nsPerOp(final Map map, int nThreads, final int getPercent, final int putPercent)
+            throws Exception {
+        for (int i = 0; i < KEYS; i += 2)
+            map.put(VALUES[i], VALUES[i]);
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(nThreads + 1, timer);
+        final int perThread = OPS / nThreads;
+        for (int t = 0; t < nThreads; t++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        barrier.await();
+                        for (int i = 0; i < perThread; i++) {
+                            int bits = random.nextInt();
+                            Integer key = VALUES[bits & (KEYS - 1)];
+                            int op = (bits >>> 16) % 100;
+                            if (op < getPercent)
+                                map.get(key);
+                            else if (op < getPercent + putPercent)
+                                map.put(key, key);
+                            else
+                                map.remove(key);
+                        }
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        barrier.await();
+        barrier.await();
+        return timer.getTime() / (perThread * (long) nThreads);
+    }
+
+    static Map concurrentHashMap() {
+        final ConcurrentHashMap<Integer, Integer> map = new ConcurrentHashMap<Integer, Integer>(16);
+        return new Map() {
+            public Integer get(Integer key) {
+                return map.get(key);
+            }
+
+            public Integer put(Integer key, Integer value) {
+                return map.put(key, value);
+            }
+
+            public Integer remove(Integer key) {
+                return map.remove(key);
+            }
+        };
+    }
+
+    static Map stripedMap() {
+        final StripedMap<Integer, Integer> map = new StripedMap<Integer, Integer>(16);
+        return new Map() {
+            public Integer get(Integer key) {
+                return map.get(key);
+            }
+
+            public Integer put(Integer key, Integer value) {
+                return map.put(key, value);
+            }
+
+            public Integer remove(Integer key) {
+                return map.remove(key);
+            }
+        };
+    }
+
+    static Map readWriteMap() {
+        final ReadWriteMap<Integer, Integer> map = new ReadWriteMap<Integer, Integer>(new HashMap<Integer, Integer>(16));
+        return new Map() {
+            public Integer get(Integer key) {
+                return map.get(key);
+            }
+
+            public Integer put(Integer key, Integer value) {
+                return map.put(key, value);
+            }
+
+            public Integer remove(Integer key) {
+                return map.remove(key);
+            }
+        };
+    }
+
+    static Map stampedReadWriteMap(boolean optimisticReads) {
+        final StampedReadWriteMap<Integer, Integer> map
+                = new StampedReadWriteMap<Integer, Integer>(new HashMap<Integer, Integer>(16), optimisticReads);
+        return new Map() {
+            public Integer get(Integer key) {
+                return map.get(key);
+            }
+
+            public Integer put(Integer key, Integer value) {
+                return map.put(key, value);
+            }
+
+            public Integer remove(Integer key) {
+                return map.remove(key);
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[][] mixes = {{99, 1}, {90, 9}, {50, 25}};
+        for (int[] mix : mixes) {
+            System.out.println("Gets: " + mix[0] + "%, puts: " + mix[1] + "%, removes: "
+                    + (100 - mix[0] - mix[1]) + "%");
+            for (int nThreads = 1; nThreads <= 16; nThreads *= 2) {
+                for (int run = 0; run < 2; run++) {
+                    System.out.print("Threads: " + nThreads);
+                    System.out.print("\tConcurrentHashMap: " + nsPerOp(concurrentHashMap(), nThreads, mix[0], mix[1]) + " ns/op");
+                    System.out.print("\tStripedMap: " + nsPerOp(stripedMap(), nThreads, mix[0], mix[1]) + " ns/op");
+                    System.out.print("\tReadWriteMap: " + nsPerOp(readWriteMap(), nThreads, mix[0], mix[1]) + " ns/op");
+                    System.out.print("\tStamped, optimistic: " + nsPerOp(stampedReadWriteMap(true), nThreads, mix[0], mix[1]) + " ns/op");
+                    System.out.println("\tpessimistic: " + nsPerOp(stampedReadWriteMap(false), nThreads, mix[0], mix[1]) + " ns/op");
+                }
+            }
+        }
+        pool.shutdown();
+    }
+}
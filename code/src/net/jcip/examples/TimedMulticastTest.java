@@ -0,0 +1,152 @@
+package net.jcip.examples;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TimedMulticastTest
+ * <p/>
+ * Comparing MulticastRingBuffer with a LinkedBlockingQueue per consumer
+ * <p/>
+ * One producer hands every item to each of several consumers, either by
+ * putting it into every consumer's queue or by publishing it once to a
+ * ring; reports the time and the bytes allocated per item, and checks that
+ * every consumer saw every item.
+ */
+public class TimedMulticastTest {
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final int CAPACITY = 1024;
+    private static final int ITEMS = 1000000;
+    private static final Integer[] VALUES = new Integer[1024]; // boxed up front, so that boxing is not measured
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    static {
+        for (int i = 0; i < VALUES.length; i++)
+            VALUES[i] = i;
+    }
+
+    private final BarrierTimer timer = new BarrierTimer();
+    private final CyclicBarrier barrier;
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong takeSum = new AtomicLong();
+    private final int consumers;
+
+    TimedMulticastTest(int consumers) {
+        this.consumers = consumers;
+        this.barrier = new CyclicBarrier(consumers + 2, timer);
+    }
+
+    private static long expectedSum() {
+        long sum = 0;
+        for (int i = 0; i < ITEMS; i++)
+            sum += VALUES[i & (VALUES.length - 1)];
+        return sum;
+    }
+
+    private long allocatedSoFar() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    void runQueues() throws Exception {
+        @SuppressWarnings("unchecked")
+        final BlockingQueue<Integer>[] queues = (BlockingQueue<Integer>[]) new BlockingQueue<?>[consumers];
+        for (int i = 0; i < consumers; i++) {
+            final BlockingQueue<Integer> queue = queues[i] = new LinkedBlockingQueue<Integer>(CAPACITY);
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        long start = allocatedSoFar();
+                        long sum = 0;
+                        for (int i = 0; i < ITEMS; i++)
+                            sum += queue.take();
+                        allocatedBytes.addAndGet(allocatedSoFar() - start);
+                        takeSum.addAndGet(sum);
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    barrier.await();
+                    long start = allocatedSoFar();
+                    for (int i = 0; i < ITEMS; i++) {
+                        Integer value = VALUES[i & (VALUES.length - 1)];
+                        for (BlockingQueue<Integer> queue : queues)
+                            queue.put(value);
+                    }
+                    allocatedBytes.addAndGet(allocatedSoFar() - start);
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        report("LinkedBlockingQueue per consumer");
+    }
+
+    void runRing() throws Exception {
+        final MulticastRingBuffer<Integer> ring = new MulticastRingBuffer<Integer>(CAPACITY);
+        for (int i = 0; i < consumers; i++) {
+            final MulticastRingBuffer<Integer>.Subscriber subscriber = ring.subscribe();
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        long start = allocatedSoFar();
+                        long sum = 0;
+                        for (int i = 0; i < ITEMS; i++)
+                            sum += subscriber.take();
+                        allocatedBytes.addAndGet(allocatedSoFar() - start);
+                        takeSum.addAndGet(sum);
+                        subscriber.close();
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    barrier.await();
+                    long start = allocatedSoFar();
+                    for (int i = 0; i < ITEMS; i++)
+                        ring.put(VALUES[i & (VALUES.length - 1)]);
+                    allocatedBytes.addAndGet(allocatedSoFar() - start);
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        report("MulticastRingBuffer");
+    }
+
+    private void report(String name) throws Exception {
+        barrier.await();
+        barrier.await();
+        if (takeSum.get() != consumers * expectedSum())
+            throw new AssertionError(name + ": a consumer missed or repeated an item");
+        System.out.println(name + ": " + timer.getTime() / ITEMS + " ns/item, "
+                + String.format("%.2f", allocatedBytes.get() / (double) ITEMS) + " bytes/item");
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int consumers = 1; consumers <= 4; consumers++) {
+            System.out.println("Consumers: " + consumers);
+            for (int run = 0; run < 2; run++) {
+                new TimedMulticastTest(consumers).runQueues();
+                new TimedMulticastTest(consumers).runRing();
+            }
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package net.jcip.examples;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+
+/**
+ * TimedPersistentQueueTest
+ * <p/>
+ * Comparing PersistentBoundedQueue with LinkedBlockingQueue
+ * <p/>
+ * Times the handoff of log-sized messages from one and from four producers
+ * to a single consumer, with the persistent queue syncing on its defaults
+ * (every 1000 items or 100ms) and with syncing on a timer only.
+ */
+public class TimedPersistentQueueTest {
+    private static final int CAPACITY = 1000;
+    private static final int ITEMS = 1000000;
+    private static final String MESSAGE =
+            "2024-01-01 12:00:00 INFO  net.jcip.examples.LogService - request handled";
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    static long nsPerHandoff(final BlockingQueue<String> queue, int producers) throws Exception {
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(producers + 2, timer);
+        final int perProducer = ITEMS / producers;
+        for (int p = 0; p < producers; p++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        for (int i = 0; i < perProducer; i++)
+                            queue.put(MESSAGE);
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        final int total = perProducer * producers;
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < total; i++)
+                        queue.take();
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        barrier.await();
+        barrier.await();
+        return timer.getTime() / total;
+    }
+
+    static long nsPerPersistentHandoff(int producers, int syncEveryItems) throws Exception {
+        File dir = Files.createTempDirectory("queue").toFile();
+        try {
+            PersistentBoundedQueue<String> queue = new PersistentBoundedQueue<String>(
+                    dir, CAPACITY, PersistentBoundedQueue.STRING, 16 << 20,
+                    syncEveryItems, 100, TimeUnit.MILLISECONDS);
+            try {
+                return nsPerHandoff(queue, producers);
+            } finally {
+                queue.close();
+            }
+        } finally {
+            for (File f : dir.listFiles())
+                f.delete();
+            dir.delete();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int producers = 1; producers <= 4; producers *= 4) {
+            System.out.println("Producers: " + producers);
+            for (int run = 0; run < 3; run++) {
+                System.out.print("LinkedBlockingQueue: "
+                        + nsPerHandoff(new LinkedBlockingQueue<String>(CAPACITY), producers) + " ns/item");
+                System.out.print("\tPersistentBoundedQueue: "
+                        + nsPerPersistentHandoff(producers, 1000) + " ns/item");
+                System.out.println("\ttimer only: "
+                        + nsPerPersistentHandoff(producers, 0) + " ns/item");
+            }
+        }
+        pool.shutdown();
+    }
+}
@@ -1,5 +1,7 @@
 package net.jcip.examples;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.concurrent.*;
 
 /**
@@ -10,24 +12,62 @@ import java.util.concurrent.*;
  * @author Brian Goetz and Tim Peierls
  */
 public class TimedPutTakeTest extends PutTakeTest {
+    // Process CPU time, to show what the spinning wait strategies cost
+    private static final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
     private BarrierTimer timer = new BarrierTimer();
 
     public TimedPutTakeTest(int cap, int pairs, int trials) {
-        super(cap, pairs, trials);
+        this(new SemaphoreBoundedBuffer<Integer>(cap), pairs, trials);
+    }
+
+    public TimedPutTakeTest(BlockingBuffer<Integer> bb, int pairs, int trials) {
+        this(bb, pairs, trials, 0);
+    }
+
+    public TimedPutTakeTest(BlockingBuffer<Integer> bb, int pairs, int trials, int batchSize) {
+        super(bb, pairs, trials, batchSize);
         barrier = new CyclicBarrier(nPairs * 2 + 1, timer);
     }
 
+    // Buffer implementations to compare, selected by name on the command line
+    static BlockingBuffer<Integer> newBuffer(String kind, int cap) {
+        switch (kind) {
+            case "semaphore":
+                return new SemaphoreBoundedBuffer<Integer>(cap);
+            case "monitor":
+                return new BoundedBuffer<Integer>(cap);
+            case "condition":
+                return new ConditionBoundedBuffer<Integer>(cap);
+            case "lockfree":
+                return new LockFreeBoundedBuffer<Integer>(cap);
+            case "lockfree-spin":
+                return new LockFreeBoundedBuffer<Integer>(cap, WaitStrategy.busySpin());
+            case "lockfree-yield":
+                return new LockFreeBoundedBuffer<Integer>(cap, WaitStrategy.spinYield());
+            case "lockfree-blocking":
+                return new LockFreeBoundedBuffer<Integer>(cap, WaitStrategy.blocking());
+            default:
+                throw new IllegalArgumentException(kind);
+        }
+    }
+
     public void test() {
         try {
             timer.clear();
             for (int i = 0; i < nPairs; i++) {
-                pool.execute(new Producer());
-                pool.execute(new Consumer());
+                pool.execute(newProducer());
+                pool.execute(newConsumer());
             }
             barrier.await();
+            long cpuStart = os.getProcessCpuTime();
             barrier.await();
+            long cpuTime = os.getProcessCpuTime() - cpuStart;
             long nsPerItem = timer.getTime() / (nPairs * (long) nTrials);
-            System.out.print("Throughput: " + nsPerItem + " ns/item");
+            long cpuPerItem = cpuTime / (nPairs * (long) nTrials);
+            long itemsPerSec = 1000000000L * nPairs * nTrials / Math.max(1, timer.getTime());
+            System.out.print("Throughput: " + nsPerItem + " ns/item (" + itemsPerSec
+                    + " items/s), CPU: " + cpuPerItem + " ns/item");
             assertEquals(putSum.get(), takeSum.get());
         } catch (Exception e) {
             throw new RuntimeException(e);
@@ -36,17 +76,45 @@ public class TimedPutTakeTest extends PutTakeTest {
 
     public static void main(String[] args) throws Exception {
         int tpt = 100000; // trials per thread
-        for (int cap = 1; cap <= 1000; cap *= 10) {
-            System.out.println("Capacity: " + cap);
-            for (int pairs = 1; pairs <= 128; pairs *= 2) {
-                TimedPutTakeTest t = new TimedPutTakeTest(cap, pairs, tpt);
-                System.out.print("Pairs: " + pairs + "\t");
-                t.test();
-                System.out.print("\t");
-                Thread.sleep(1000);
-                t.test();
-                System.out.println();
-                Thread.sleep(1000);
+        if (args.length > 0 && args[0].equals("batch")) {
+            batchSweep(Arrays.copyOfRange(args, 1, args.length), tpt);
+            return;
+        }
+        String[] kinds = (args.length > 0) ? args : new String[]{"semaphore", "lockfree"};
+        for (String kind : kinds) {
+            System.out.println("Buffer: " + kind);
+            for (int cap = 1; cap <= 1000; cap *= 10) {
+                System.out.println("Capacity: " + cap);
+                for (int pairs = 1; pairs <= 128; pairs *= 2) {
+                    TimedPutTakeTest t = new TimedPutTakeTest(newBuffer(kind, cap), pairs, tpt);
+                    System.out.print("Pairs: " + pairs + "\t");
+                    t.test();
+                    System.out.print("\t");
+                    Thread.sleep(1000);
+                    t.test();
+                    System.out.println();
+                    Thread.sleep(1000);
+                }
+            }
+        }
+        PutTakeTest.pool.shutdown();
+    }
+
+    // Batched put/take through a buffer of 1024 at batch sizes 1 to 1024
+    static void batchSweep(String[] kinds, int tpt) throws Exception {
+        if (kinds.length == 0)
+            kinds = new String[]{"semaphore", "monitor", "condition", "lockfree"};
+        for (String kind : kinds) {
+            System.out.println("Buffer: " + kind);
+            for (int batch = 1; batch <= 1024; batch *= 2) {
+                for (int pairs = 1; pairs <= 8; pairs *= 2) {
+                    TimedPutTakeTest t = new TimedPutTakeTest(newBuffer(kind, 1024), pairs, tpt, batch);
+                    System.out.print("Batch: " + batch + "\tPairs: " + pairs + "\t");
+                    t.test();
+                    System.out.print("\t");
+                    t.test();
+                    System.out.println();
+                }
             }
         }
         PutTakeTest.pool.shutdown();
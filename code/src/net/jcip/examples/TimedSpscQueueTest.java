@@ -0,0 +1,112 @@
+package net.jcip.examples;
+
+import java.io.Writer;
+import java.util.concurrent.*;
+
+/**
+ * TimedSpscQueueTest
+ * <p/>
+ * Comparing SpscBoundedQueue with the synchronized queues for one producer and one consumer
+ * <p/>
+ * First times the bare handoff of items from one thread to another, then
+ * the same through LogWriter, with and without its single-producer switch.
+ */
+public class TimedSpscQueueTest {
+    private static final int CAPACITY = 1000;
+    private static final int ITEMS = 2000000;
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    static long nsPerHandoff(final BlockingQueue<Integer> queue) throws Exception {
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(3, timer);
+        final Integer item = 42; // the same object every time, so that boxing is not measured
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < ITEMS; i++)
+                        queue.put(item);
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < ITEMS; i++)
+                        queue.take();
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        barrier.await();
+        barrier.await();
+        return timer.getTime() / ITEMS;
+    }
+
+    static long nsPerLogMessage(boolean singleProducer) throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        Writer discard = new Writer() {
+            private int lines;
+
+            public void write(char[] cbuf, int off, int len) {
+                for (int i = off; i < off + len; i++)
+                    if (cbuf[i] == '\n' && ++lines == ITEMS)
+                        written.countDown();
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        LogWriter log = daemonLogWriter(discard, singleProducer);
+        log.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITEMS; i++)
+            log.log("message");
+        written.await();
+        return (System.nanoTime() - start) / ITEMS;
+    }
+
+    /**
+     * LogWriter cannot be shut down, but its logger thread inherits the
+     * daemon status of the thread that creates it; creating it on a daemon
+     * thread keeps it from holding the JVM open once main returns.
+     */
+    static LogWriter daemonLogWriter(final Writer writer, final boolean singleProducer)
+            throws InterruptedException {
+        final LogWriter[] log = new LogWriter[1];
+        Thread creator = new Thread() {
+            public void run() {
+                log[0] = new LogWriter(writer, singleProducer);
+            }
+        };
+        creator.setDaemon(true);
+        creator.start();
+        creator.join();
+        return log[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int run = 0; run < 3; run++) {
+            System.out.print("LinkedBlockingQueue: "
+                    + nsPerHandoff(new LinkedBlockingQueue<Integer>(CAPACITY)) + " ns/item");
+            System.out.print("\tArrayBlockingQueue: "
+                    + nsPerHandoff(new ArrayBlockingQueue<Integer>(CAPACITY)) + " ns/item");
+            System.out.println("\tSpscBoundedQueue: "
+                    + nsPerHandoff(new SpscBoundedQueue<Integer>(CAPACITY)) + " ns/item");
+        }
+        for (int run = 0; run < 3; run++) {
+            System.out.print("LogWriter: " + nsPerLogMessage(false) + " ns/message");
+            System.out.println("\tLogWriter, single producer: " + nsPerLogMessage(true) + " ns/message");
+        }
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,102 @@
+package net.jcip.examples;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TimedStackTest
+ * <p/>
+ * Comparing EliminationBackoffStack with ConcurrentStack and ConcurrentLinkedDeque
+ * <p/>
+ * Every thread alternates pushing an item and popping one, so the stack is
+ * never empty when popped and all the contention is on the top. Checks
+ * that everything pushed was popped exactly once, by sum.
+ */
+public class TimedStackTest {
+    private static final int PAIRS = 1 << 20; // push-pop pairs, shared out among the threads
+    private static final Integer[] VALUES = new Integer[1024]; // boxed up front, so that boxing is not measured
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+
+    static {
+        for (int i = 0; i < VALUES.length; i++)
+            VALUES[i] = i;
+    }
+
+    /** The operations under test, so that the three stacks can share one loop */
+    interface Stack {
+        void push(Integer x);
+
+        Integer pop();
+    }
+
+    static long nsPerPair(final Stack stack, int nThreads) throws Exception {
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(nThreads + 1, timer);
+        final AtomicLong pushSum = new AtomicLong(), popSum = new AtomicLong();
+        final int perThread = PAIRS / nThreads;
+        for (int t = 0; t < nThreads; t++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        long pushed = 0, popped = 0;
+                        for (int i = 0; i < perThread; i++) {
+                            Integer value = VALUES[i & (VALUES.length - 1)];
+                            stack.push(value);
+                            pushed += value;
+                            popped += stack.pop();
+                        }
+                        pushSum.addAndGet(pushed);
+                        popSum.addAndGet(popped);
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        barrier.await();
+        barrier.await();
+        if (pushSum.get() != popSum.get())
+            throw new AssertionError("items lost or repeated");
+        return timer.getTime() / (perThread * (long) nThreads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (int nThreads = 1; nThreads <= 128; nThreads *= 2) {
+            for (int run = 0; run < 2; run++) {
+                final ConcurrentStack<Integer> treiber = new ConcurrentStack<Integer>();
+                final EliminationBackoffStack<Integer> elimination = new EliminationBackoffStack<Integer>();
+                final ConcurrentLinkedDeque<Integer> deque = new ConcurrentLinkedDeque<Integer>();
+                System.out.print("Threads: " + nThreads + "\tConcurrentStack: " + nsPerPair(new Stack() {
+                    public void push(Integer x) {
+                        treiber.push(x);
+                    }
+
+                    public Integer pop() {
+                        return treiber.pop();
+                    }
+                }, nThreads) + " ns/pair");
+                System.out.print("\tEliminationBackoffStack: " + nsPerPair(new Stack() {
+                    public void push(Integer x) {
+                        elimination.push(x);
+                    }
+
+                    public Integer pop() {
+                        return elimination.pop();
+                    }
+                }, nThreads) + " ns/pair");
+                System.out.println("\tConcurrentLinkedDeque: " + nsPerPair(new Stack() {
+                    public void push(Integer x) {
+                        deque.push(x);
+                    }
+
+                    public Integer pop() {
+                        return deque.pop();
+                    }
+                }, nThreads) + " ns/pair");
+            }
+        }
+        pool.shutdown();
+    }
+}
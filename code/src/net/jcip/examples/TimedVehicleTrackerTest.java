@@ -0,0 +1,212 @@
+package net.jcip.examples;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * TimedVehicleTrackerTest
+ * <p/>
+ * Timing location updates and area queries on the three vehicle trackers
+ * <p/>
+ * Places a fleet of vehicles at random over a square, then times
+ * setLocation on each tracker, moving random vehicles a short way from a
+ * growing number of threads, and then radius and nearest-ten queries
+ * through the trackers' grids against the same radius query done by
+ * scanning getLocations, as it had to be without an index. A fleet of
+ * VEHICLES reporting once a second leaves 1000000000 / VEHICLES ns of one
+ * core for each update.
+ */
+public class TimedVehicleTrackerTest {
+    private static final int VEHICLES = 500000;
+    private static final int SIDE = 100000;
+    private static final int RADIUS = 1000;
+    private static final int MOVES = 1 << 21; // shared out among the threads
+    private static final int QUERIES = 1000;
+    private static final int SCANS = 10;
+    private static final ExecutorService pool = Executors.newCachedThreadPool();
+    private static final String[] IDS = new String[VEHICLES];
+    // Where each vehicle was last sent; updated without synchronization, as
+    // it only has to keep the moves short
+    private static final int[] X = new int[VEHICLES], Y = new int[VEHICLES];
+
+    /** The operations under test, so that the three trackers can share one loop */
+    interface Tracker {
+        void setLocation(String id, int x, int y);
+
+        List<String> getVehiclesWithin(int x, int y, int radius);
+
+        List<String> getNearestVehicles(int x, int y, int k);
+
+        /** The radius query by a scan of getLocations */
+        int scanWithin(int x, int y, int radius);
+    }
+
+    static boolean within(long x, long y, int qx, int qy, int radius) {
+        long dx = x - qx, dy = y - qy;
+        return dx * dx + dy * dy <= (long) radius * radius;
+    }
+
+    static Tracker delegating() {
+        Map<String, java.awt.Point> points = new HashMap<String, java.awt.Point>();
+        for (int i = 0; i < VEHICLES; i++)
+            points.put(IDS[i], new java.awt.Point(X[i], Y[i]));
+        final DelegatingVehicleTracker tracker = new DelegatingVehicleTracker(points);
+        return new Tracker() {
+            public void setLocation(String id, int x, int y) {
+                tracker.setLocation(id, x, y);
+            }
+
+            public List<String> getVehiclesWithin(int x, int y, int radius) {
+                return tracker.getVehiclesWithin(x, y, radius);
+            }
+
+            public List<String> getNearestVehicles(int x, int y, int k) {
+                return tracker.getNearestVehicles(x, y, k);
+            }
+
+            public int scanWithin(int x, int y, int radius) {
+                int n = 0;
+                for (java.awt.Point p : tracker.getLocations().values())
+                    if (within(p.x, p.y, x, y, radius))
+                        n++;
+                return n;
+            }
+        };
+    }
+
+    static Tracker monitor() {
+        Map<String, MutablePoint> points = new HashMap<String, MutablePoint>();
+        for (int i = 0; i < VEHICLES; i++) {
+            MutablePoint p = new MutablePoint();
+            p.x = X[i];
+            p.y = Y[i];
+            points.put(IDS[i], p);
+        }
+        final MonitorVehicleTracker tracker = new MonitorVehicleTracker(points);
+        return new Tracker() {
+            public void setLocation(String id, int x, int y) {
+                tracker.setLocation(id, x, y);
+            }
+
+            public List<String> getVehiclesWithin(int x, int y, int radius) {
+                return tracker.getVehiclesWithin(x, y, radius);
+            }
+
+            public List<String> getNearestVehicles(int x, int y, int k) {
+                return tracker.getNearestVehicles(x, y, k);
+            }
+
+            public int scanWithin(int x, int y, int radius) {
+                int n = 0;
+                for (MutablePoint p : tracker.getLocations().values())
+                    if (within(p.x, p.y, x, y, radius))
+                        n++;
+                return n;
+            }
+        };
+    }
+
+    static Tracker publishing() {
+        Map<String, SafePoint> points = new HashMap<String, SafePoint>();
+        for (int i = 0; i < VEHICLES; i++)
+            points.put(IDS[i], new SafePoint(X[i], Y[i]));
+        final PublishingVehicleTracker tracker = new PublishingVehicleTracker(points);
+        return new Tracker() {
+            public void setLocation(String id, int x, int y) {
+                tracker.setLocation(id, x, y);
+            }
+
+            public List<String> getVehiclesWithin(int x, int y, int radius) {
+                return tracker.getVehiclesWithin(x, y, radius);
+            }
+
+            public List<String> getNearestVehicles(int x, int y, int k) {
+                return tracker.getNearestVehicles(x, y, k);
+            }
+
+            public int scanWithin(int x, int y, int radius) {
+                int n = 0;
+                for (SafePoint p : tracker.getLocations().values()) {
+                    int[] xy = p.get();
+                    if (within(xy[0], xy[1], x, y, radius))
+                        n++;
+                }
+                return n;
+            }
+        };
+    }
+
+    static long nsPerMove(final Tracker tracker, int nThreads) throws Exception {
+        final BarrierTimer timer = new BarrierTimer();
+        final CyclicBarrier barrier = new CyclicBarrier(nThreads + 1, timer);
+        final int perThread = MOVES / nThreads;
+        for (int t = 0; t < nThreads; t++) {
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        barrier.await();
+                        for (int i = 0; i < perThread; i++) {
+                            int v = random.nextInt(VEHICLES);
+                            int x = clamp(X[v] + random.nextInt(-50, 51));
+                            int y = clamp(Y[v] + random.nextInt(-50, 51));
+                            X[v] = x;
+                            Y[v] = y;
+                            tracker.setLocation(IDS[v], x, y);
+                        }
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        barrier.await();
+        barrier.await();
+        return timer.getTime() / (perThread * (long) nThreads);
+    }
+
+    private static int clamp(int v) {
+        return Math.max(0, Math.min(SIDE - 1, v));
+    }
+
+    static void time(String name, Tracker tracker) throws Exception {
+        System.out.println(name);
+        for (int nThreads = 1; nThreads <= 16; nThreads *= 2) {
+            nsPerMove(tracker, nThreads); // warm up
+            System.out.println("\tThreads: " + nThreads + "\tsetLocation: " + nsPerMove(tracker, nThreads) + " ns");
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int run = 0; run < 2; run++) {
+            long found = 0, start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++)
+                found += tracker.getVehiclesWithin(random.nextInt(SIDE), random.nextInt(SIDE), RADIUS).size();
+            long gridRadius = (System.nanoTime() - start) / QUERIES;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++)
+                found += tracker.getNearestVehicles(random.nextInt(SIDE), random.nextInt(SIDE), 10).size();
+            long gridNearest = (System.nanoTime() - start) / QUERIES;
+            start = System.nanoTime();
+            for (int q = 0; q < SCANS; q++)
+                found += tracker.scanWithin(random.nextInt(SIDE), random.nextInt(SIDE), RADIUS);
+            long scanRadius = (System.nanoTime() - start) / SCANS;
+            System.out.println("\tRadius " + RADIUS + ": grid " + gridRadius / 1000 + " us, scan " + scanRadius / 1000
+                    + " us\tnearest 10: grid " + gridNearest / 1000 + " us\t(found " + found + ")");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < VEHICLES; i++) {
+            IDS[i] = "vehicle " + i;
+            X[i] = random.nextInt(SIDE);
+            Y[i] = random.nextInt(SIDE);
+        }
+        System.out.println("Vehicles: " + VEHICLES + " over a square of " + SIDE
+                + "; budget per update: " + 1000000000L / VEHICLES + " ns");
+        time("DelegatingVehicleTracker", delegating());
+        time("PublishingVehicleTracker", publishing());
+        time("MonitorVehicleTracker", monitor());
+        pool.shutdown();
+    }
+}
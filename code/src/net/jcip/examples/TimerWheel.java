@@ -0,0 +1,139 @@
+package net.jcip.examples;
+
+import java.util.*;
+
+import net.jcip.annotations.*;
+
+/**
+ * TimerWheel
+ * <p/>
+ * Hierarchical timer wheel for expiring entries in amortized O(1)
+ * <p/>
+ * Each level is an array of buckets, each bucket a doubly-linked list of
+ * timers. A timer is placed on the finest level whose range covers its
+ * deadline. Advancing the clock only visits the buckets whose ticks have
+ * elapsed; timers in them that are not yet due cascade down to a finer level.
+ * The cost of advancing is thus proportional to the number of timers that
+ * fire, not to the number of timers scheduled.
+ * <p/>
+ * Times are nanoseconds on a non-negative clock chosen by the caller.
+ */
+@NotThreadSafe
+class TimerWheel <T extends TimerWheel.Timer> {
+    // Buckets per level, and the span of a single bucket of each level:
+    // ~1.07s, ~1.14m, ~1.22h, ~1.63d, ~6.5d (the last level is an overflow bucket)
+    private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+    private static final long[] SPANS = {
+            1L << 30, 1L << 36, 1L << 42, 1L << 47, 1L << 49, 1L << 49};
+    private static final long[] SHIFT = new long[SPANS.length];
+
+    static {
+        for (int i = 0; i < SPANS.length; i++)
+            SHIFT[i] = Long.numberOfTrailingZeros(SPANS[i]);
+    }
+
+    static class Timer {
+        long time;
+        Timer prev, next;
+
+        boolean isScheduled() {
+            return next != null;
+        }
+    }
+
+    private final Timer[][] wheel;
+    private long nanos;
+
+    public TimerWheel(long currentTime) {
+        nanos = currentTime;
+        wheel = new Timer[BUCKETS.length][];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Timer[BUCKETS[i]];
+            for (int j = 0; j < wheel[i].length; j++) {
+                Timer sentinel = new Timer();
+                sentinel.prev = sentinel.next = sentinel;
+                wheel[i][j] = sentinel;
+            }
+        }
+    }
+
+    /** Schedules (or reschedules) t to fire at the given time */
+    public void schedule(T t, long time) {
+        if (t.isScheduled())
+            unlink(t);
+        t.time = time;
+        link(findBucket(time), t);
+    }
+
+    public void deschedule(T t) {
+        if (t.isScheduled())
+            unlink(t);
+    }
+
+    /**
+     * Advances the clock to currentTime, adding every timer that is due to
+     * expired. Timers whose time has not yet come are rescheduled.
+     */
+    public void advance(long currentTime, Collection<? super T> expired) {
+        long previousTime = nanos;
+        nanos = currentTime;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            long previousTicks = previousTime >>> SHIFT[i];
+            long currentTicks = currentTime >>> SHIFT[i];
+            if (currentTicks - previousTicks <= 0)
+                break;
+            expire(i, previousTicks, currentTicks - previousTicks, expired);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long delta,
+                        Collection<? super T> expired) {
+        Timer[] timerWheel = wheel[level];
+        int mask = timerWheel.length - 1;
+        int steps = (int) Math.min(1 + delta, timerWheel.length);
+        int start = (int) (previousTicks & mask);
+        int end = start + steps;
+        for (int i = start; i < end; i++) {
+            // Detach the whole bucket, then either fire or cascade each timer
+            Timer sentinel = timerWheel[i & mask];
+            Timer t = sentinel.next;
+            sentinel.prev = sentinel.next = sentinel;
+            while (t != sentinel) {
+                Timer next = t.next;
+                t.prev = t.next = null;
+                if (t.time - nanos > 0)
+                    link(findBucket(t.time), t);
+                else {
+                    @SuppressWarnings("unchecked") T timer = (T) t; // only Ts are scheduled
+                    expired.add(timer);
+                }
+                t = next;
+            }
+        }
+    }
+
+    private Timer findBucket(long time) {
+        long duration = time - nanos;
+        int last = wheel.length - 1;
+        for (int i = 0; i < last; i++) {
+            if (duration < SPANS[i + 1]) {
+                long ticks = time >>> SHIFT[i];
+                return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+            }
+        }
+        return wheel[last][0];
+    }
+
+    private static void link(Timer sentinel, Timer t) {
+        t.prev = sentinel.prev;
+        t.next = sentinel;
+        sentinel.prev.next = t;
+        sentinel.prev = t;
+    }
+
+    private static void unlink(Timer t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = t.next = null;
+    }
+}
@@ -1,5 +1,6 @@
 package net.jcip.examples;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import javax.servlet.*;
 
@@ -8,34 +9,57 @@ import net.jcip.annotations.*;
 /**
  * VolatileCachedFactorizer
  * <p/>
- * Caching the last result using a volatile reference to an immutable holder object
+ * Caching recent results using a volatile reference to an immutable holder object
  *
  * @author Brian Goetz and Tim Peierls
  */
 @ThreadSafe
 public class VolatileCachedFactorizer extends GenericServlet implements Servlet {
-    private volatile OneValueCache cache = new OneValueCache(null, null);
+    private static final FactorizationEngine engine = new FactorizationEngine();
+    private static final int CACHE_SIZE = 64;
+    // Remembers up to CACHE_SIZE recent numbers rather than only the last one,
+    // so that clients alternating between inputs still hit. Keyed by the
+    // number as requested and holding the encoded response, so that a hit
+    // neither parses, copies nor encodes anything.
+    private final ClockValueCache<String, EncodedFactors> cache
+            = new ClockValueCache<String, EncodedFactors>(CACHE_SIZE);
 
-    public void service(ServletRequest req, ServletResponse resp) {
-        BigInteger i = extractFromRequest(req);
-        BigInteger[] factors = cache.getFactors(i);
+    public void service(ServletRequest req, ServletResponse resp) throws IOException {
+        String number = extractFromRequest(req);
+        EncodedFactors factors = cache.get(number);
         if (factors == null) {
-            factors = factor(i);
-            cache = new OneValueCache(i, factors);
+            try {
+                factors = new EncodedFactors(factor(new BigInteger(number)));
+            } catch (NumberFormatException e) {
+                encodeError(resp, "not a number");
+                return;
+            } catch (IllegalArgumentException e) {
+                encodeError(resp, "too large to factor");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                encodeError(resp, "factorization interrupted");
+                return;
+            }
+            cache.put(number, factors);
         }
         encodeIntoResponse(resp, factors);
     }
 
-    void encodeIntoResponse(ServletResponse resp, BigInteger[] factors) {
+    void encodeIntoResponse(ServletResponse resp, EncodedFactors factors)
+            throws IOException {
+        factors.writeTo(resp);
     }
 
-    BigInteger extractFromRequest(ServletRequest req) {
-        return new BigInteger("7");
+    void encodeError(ServletResponse resp, String errorString) {
     }
 
-    BigInteger[] factor(BigInteger i) {
-        // Doesn't really factor
-        return new BigInteger[]{i};
+    String extractFromRequest(ServletRequest req) {
+        return "7";
+    }
+
+    BigInteger[] factor(BigInteger i) throws InterruptedException {
+        return engine.factor(i);
     }
 }
 
@@ -0,0 +1,140 @@
+package net.jcip.examples;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+import java.util.function.BooleanSupplier;
+
+import net.jcip.annotations.*;
+
+/**
+ * WaitStrategy
+ * <p/>
+ * How a thread waits for a buffer to become not-full or not-empty
+ * <p/>
+ * A buffer retries its operation in a loop, calling await with the number of
+ * failed attempts so far, and calls signalAll after every successful one:
+ * <pre>
+ *     for (int round = 0; !tryOperation(); round++)
+ *         waitStrategy.await(round, ready);
+ *     waitStrategy.signalAll();
+ * </pre>
+ * await may return before ready holds, so the operation has to be retried.
+ * The strategies trade CPU for wake-up latency: busySpin reacts fastest but
+ * burns a core per waiting thread, blocking costs nothing while waiting but
+ * makes each wake-up go through the scheduler.
+ * <p/>
+ * A blocking strategy keeps track of its waiters, so each buffer needs its
+ * own instance.
+ */
+public abstract class WaitStrategy {
+    private static final int SPINS = 100, YIELDS = 10;
+    private static final long MAX_PARK_NANOS = 1L << 20; // ~1ms
+
+    /** Waits, for the round-th time in a row, for ready to hold */
+    public abstract void await(int round, BooleanSupplier ready) throws InterruptedException;
+
+    /** Wakes the threads blocked in await; called after every state change */
+    public void signalAll() {
+    }
+
+    /**
+     * Whether signalAll may wake anyone. If so it reads the number of
+     * waiters first, so a buffer that publishes its state with a lazySet has
+     * to use a volatile write instead: a lazySet may become visible only
+     * after that read, and a waiter that registered in between would sleep
+     * through the change.
+     */
+    public boolean signals() {
+        return false;
+    }
+
+    /** Retries at once */
+    public static WaitStrategy busySpin() {
+        return new WaitStrategy() {
+            public void await(int round, BooleanSupplier ready) throws InterruptedException {
+                checkInterrupt();
+            }
+        };
+    }
+
+    /** Retries at once a few times, then yields the processor before each retry */
+    public static WaitStrategy spinYield() {
+        return new WaitStrategy() {
+            public void await(int round, BooleanSupplier ready) throws InterruptedException {
+                checkInterrupt();
+                if (round >= SPINS)
+                    Thread.yield();
+            }
+        };
+    }
+
+    /**
+     * Spins, then yields, then parks for intervals doubling from about a
+     * microsecond up to about a millisecond; never needs a signal.
+     */
+    public static WaitStrategy spinPark() {
+        return new WaitStrategy() {
+            public void await(int round, BooleanSupplier ready) throws InterruptedException {
+                checkInterrupt();
+                if (round < SPINS)
+                    return;
+                if (round < SPINS + YIELDS)
+                    Thread.yield();
+                else {
+                    int doublings = Math.min(round - SPINS - YIELDS, 20);
+                    LockSupport.parkNanos(Math.min(1024L << doublings, MAX_PARK_NANOS));
+                }
+            }
+        };
+    }
+
+    /** Blocks on a condition until signalled */
+    public static WaitStrategy blocking() {
+        return new Blocking();
+    }
+
+    private static void checkInterrupt() throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+    }
+
+    @ThreadSafe
+    private static final class Blocking extends WaitStrategy {
+        private final Lock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        // Signallers only take the lock when someone may be waiting
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        public void await(int round, BooleanSupplier ready) throws InterruptedException {
+            // Registering before rechecking means that a state change made
+            // after the recheck sees the waiter and signals it
+            waiters.incrementAndGet();
+            try {
+                lock.lockInterruptibly();
+                try {
+                    while (!ready.getAsBoolean())
+                        changed.await();
+                } finally {
+                    lock.unlock();
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+
+        public boolean signals() {
+            return true;
+        }
+
+        public void signalAll() {
+            if (waiters.get() == 0)
+                return;
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
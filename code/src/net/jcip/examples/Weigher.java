@@ -0,0 +1,14 @@
+package net.jcip.examples;
+
+/**
+ * Weigher
+ * <p/>
+ * Calculates the weight of a cached entry for size-bounded caches
+ */
+public interface Weigher <K, V> {
+    /**
+     * Returns the weight of the entry; must be non-negative and should
+     * not change for as long as the entry is cached.
+     */
+    int weigh(K key, V value);
+}